@@ -0,0 +1,38 @@
+package com.kenzie.marketing.application.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Lets a handler give its own async request a timeout other than spring.mvc.async.request-timeout.
+ *
+ * A handler that streams for longer than the default sets STREAM_TIMEOUT_ATTRIBUTE on its request, in milliseconds,
+ * before it returns a StreamingResponseBody.  The timeout is applied just before the async processing starts, so
+ * every other async request keeps the finite default.
+ */
+@Configuration
+public class AsyncTimeoutConfig implements WebMvcConfigurer {
+    public static final String STREAM_TIMEOUT_ATTRIBUTE = AsyncTimeoutConfig.class.getName() + ".streamTimeout";
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new StreamTimeoutInterceptor());
+    }
+
+    private static class StreamTimeoutInterceptor implements CallableProcessingInterceptor {
+        @Override
+        public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+            Object timeout = request.getAttribute(STREAM_TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            if (timeout instanceof Long && request instanceof AsyncWebRequest) {
+                ((AsyncWebRequest) request).setTimeout((Long) timeout);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.kenzie.marketing.application.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String CUSTOMER_CACHE = "customers";
+
+    // The cache is created up front, so the actuator binds its hit, miss and eviction stats to the meter registry
+    @Bean
+    public CacheManager cacheManager(@Value("${customer.cache.maximumSize:10000}") long maximumSize,
+                                     @Value("${customer.cache.expireAfterWriteSeconds:300}") long expireAfterWrite) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.setCaffeine(Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWrite))
+                .recordStats());
+        cacheManager.setCacheNames(List.of(CUSTOMER_CACHE));
+        cacheManager.setAllowNullValues(false);
+        return cacheManager;
+    }
+}
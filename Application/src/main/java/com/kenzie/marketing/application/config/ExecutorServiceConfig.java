@@ -1,14 +1,18 @@
 package com.kenzie.marketing.application.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
+@EnableScheduling
 public class ExecutorServiceConfig {
 
     @Bean
@@ -16,4 +20,15 @@ public class ExecutorServiceConfig {
         ExecutorService executor =  Executors.newFixedThreadPool(5);
         return executor;
     }
+
+    // Runs the segments of parallel customer export scans, so an export can't take over the whole application
+    @Bean
+    public ExecutorService customerExportExecutor(@Value("${customer.export.threads:4}") int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "customer-export-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
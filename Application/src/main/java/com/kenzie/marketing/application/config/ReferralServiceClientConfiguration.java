@@ -1,14 +1,19 @@
 package com.kenzie.marketing.application.config;
 
 import com.kenzie.marketing.referral.model.client.ReferralServiceClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class ReferralServiceClientConfiguration {
 
+    // Leave empty to look up the deployed API Gateway endpoint once at startup
+    @Value("${referral.service.endpoint:}")
+    private String referralServiceEndpoint;
+
     @Bean
     public ReferralServiceClient referralServiceClient() {
-        return new ReferralServiceClient();
+        return new ReferralServiceClient(referralServiceEndpoint);
     }
 }
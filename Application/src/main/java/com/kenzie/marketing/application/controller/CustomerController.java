@@ -1,28 +1,57 @@
 package com.kenzie.marketing.application.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kenzie.marketing.application.config.AsyncTimeoutConfig;
 import com.kenzie.marketing.application.controller.model.CreateCustomerRequest;
+import com.kenzie.marketing.application.controller.model.CustomerExportResponse;
+import com.kenzie.marketing.application.controller.model.CustomerPageResponse;
 import com.kenzie.marketing.application.controller.model.CustomerResponse;
 import com.kenzie.marketing.application.controller.model.CustomerUpdateRequest;
 import com.kenzie.marketing.application.controller.model.LeaderboardUiEntry;
 import com.kenzie.marketing.application.controller.model.ReferralBonusResponse;
+import com.kenzie.marketing.application.service.CustomerExportService;
 import com.kenzie.marketing.application.service.CustomerService;
+import com.kenzie.marketing.application.service.LeaderboardCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
 @RequestMapping("/customers")
 public class CustomerController {
 
-    private CustomerService customerService;
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    // Flushed every this many customers, so the client starts receiving them while the scan is still running
+    private static final int STREAM_FLUSH_INTERVAL = 100;
 
-    CustomerController(CustomerService customerService) {
+    private CustomerService customerService;
+    private CustomerExportService customerExportService;
+    private LeaderboardCache leaderboardCache;
+    private ObjectMapper objectMapper;
+    // Streams can take as long as a full table scan, so they get their own, longer, async timeout
+    private long streamTimeoutMillis;
+
+    CustomerController(CustomerService customerService, CustomerExportService customerExportService,
+                       LeaderboardCache leaderboardCache, ObjectMapper objectMapper,
+                       @Value("${customer.stream.timeoutMillis:3600000}") long streamTimeoutMillis) {
         this.customerService = customerService;
+        this.customerExportService = customerExportService;
+        this.leaderboardCache = leaderboardCache;
+        this.objectMapper = objectMapper;
+        this.streamTimeoutMillis = streamTimeoutMillis;
     }
 
     @PostMapping
@@ -59,9 +88,55 @@ public class CustomerController {
         return ResponseEntity.ok(customers);
     }
 
+    @GetMapping(params = "pageSize")
+    public ResponseEntity<CustomerPageResponse> getCustomerPage(
+            @RequestParam("pageSize") int pageSize,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return ResponseEntity.ok(customerService.findCustomerPage(cursor, pageSize));
+    }
+
+    @GetMapping(produces = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAllCustomers(HttpServletRequest request) {
+        request.setAttribute(AsyncTimeoutConfig.STREAM_TIMEOUT_ATTRIBUTE, streamTimeoutMillis);
+        StreamingResponseBody body = outputStream -> {
+            AtomicInteger written = new AtomicInteger();
+            customerService.forEachCustomer(customer -> {
+                try {
+                    outputStream.write(objectMapper.writeValueAsBytes(customer));
+                    outputStream.write('\n');
+                    if (written.incrementAndGet() % STREAM_FLUSH_INTERVAL == 0) {
+                        outputStream.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            outputStream.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(body);
+    }
+
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportCustomers(HttpServletRequest request) {
+        request.setAttribute(AsyncTimeoutConfig.STREAM_TIMEOUT_ATTRIBUTE, streamTimeoutMillis);
+        StreamingResponseBody body = outputStream -> customerExportService.exportCustomers(outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(body);
+    }
+
+    @PostMapping("/export")
+    public ResponseEntity<CustomerExportResponse> exportCustomersToFile() throws IOException {
+        CustomerExportResponse exportResponse = new CustomerExportResponse();
+        exportResponse.setFile(customerExportService.exportCustomersToFile().toString());
+        return ResponseEntity.ok(exportResponse);
+    }
+
     @GetMapping("/leaderboard")
     public ResponseEntity<List<LeaderboardUiEntry>> getReferralsLeaders() {
-        List<LeaderboardUiEntry> leaderboard = customerService.getLeaderboard();
+        List<LeaderboardUiEntry> leaderboard = leaderboardCache.getLeaderboard();
         return ResponseEntity.ok(leaderboard);
     }
 
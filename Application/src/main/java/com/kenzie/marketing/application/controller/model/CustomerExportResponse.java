@@ -0,0 +1,17 @@
+package com.kenzie.marketing.application.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class CustomerExportResponse {
+
+    @JsonProperty("file")
+    private String file;
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+}
@@ -0,0 +1,32 @@
+package com.kenzie.marketing.application.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomerPageResponse {
+
+    @JsonProperty("customers")
+    private List<CustomerResponse> customers;
+
+    @JsonProperty("nextCursor")
+    private String nextCursor;
+
+    public List<CustomerResponse> getCustomers() {
+        return customers;
+    }
+
+    public void setCustomers(List<CustomerResponse> customers) {
+        this.customers = customers;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
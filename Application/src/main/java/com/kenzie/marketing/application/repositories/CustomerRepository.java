@@ -1,9 +1,31 @@
 package com.kenzie.marketing.application.repositories;
 
+import com.kenzie.marketing.application.config.CacheConfig;
 import com.kenzie.marketing.application.repositories.model.CustomerRecord;
 import org.socialsignin.spring.data.dynamodb.repository.EnableScan;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Optional;
+
+/**
+ * Single customer reads go through the customer cache.  Saves write through to it and deletes evict from it, so
+ * the cache only goes stale when the table is changed outside this application.
+ */
 @EnableScan
 public interface CustomerRepository extends CrudRepository<CustomerRecord, String> {
+
+    @Override
+    @Cacheable(value = CacheConfig.CUSTOMER_CACHE, key = "#p0", unless = "#result == null")
+    Optional<CustomerRecord> findById(String id);
+
+    @Override
+    @CachePut(value = CacheConfig.CUSTOMER_CACHE, key = "#result.id")
+    <S extends CustomerRecord> S save(S entity);
+
+    @Override
+    @CacheEvict(value = CacheConfig.CUSTOMER_CACHE, key = "#p0")
+    void deleteById(String id);
 }
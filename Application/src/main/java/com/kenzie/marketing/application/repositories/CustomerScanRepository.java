@@ -0,0 +1,83 @@
+package com.kenzie.marketing.application.repositories;
+
+import com.kenzie.marketing.application.repositories.model.CustomerRecord;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Scans of the Customer table that CustomerRepository can't express, because they need control over how the scan
+ * is paged.
+ */
+@Repository
+public class CustomerScanRepository {
+    private static final String ID_ATTRIBUTE = "Id";
+
+    private DynamoDBMapper mapper;
+
+    public CustomerScanRepository(AmazonDynamoDB amazonDynamoDB) {
+        this.mapper = new DynamoDBMapper(amazonDynamoDB);
+    }
+
+    /**
+     * Reads a single page of customers.
+     * @param exclusiveStartId the id of the last customer of the previous page, or null for the first page
+     * @param limit the maximum number of customers to read
+     * @return the page, whose last evaluated key is null once the scan is complete
+     */
+    public ScanResultPage<CustomerRecord> scanPage(String exclusiveStartId, int limit) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withLimit(limit);
+        if (exclusiveStartId != null) {
+            scanExpression.setExclusiveStartKey(
+                    Collections.singletonMap(ID_ATTRIBUTE, new AttributeValue(exclusiveStartId)));
+        }
+        return mapper.scanPage(CustomerRecord.class, scanExpression);
+    }
+
+    /**
+     * Returns the id in a page's last evaluated key, or null if the scan is complete.
+     */
+    public static String getLastEvaluatedId(ScanResultPage<CustomerRecord> page) {
+        if (page.getLastEvaluatedKey() == null || !page.getLastEvaluatedKey().containsKey(ID_ATTRIBUTE)) {
+            return null;
+        }
+        return page.getLastEvaluatedKey().get(ID_ATTRIBUTE).getS();
+    }
+
+    /**
+     * Reads a single page of one segment of a parallel scan, including the read capacity the page consumed.
+     * @param segment the segment to read, from 0 to totalSegments - 1
+     * @param totalSegments the number of segments the table is split into
+     * @param exclusiveStartKey the last evaluated key of the segment's previous page, or null for its first page
+     * @return the page, whose last evaluated key is null once the segment is complete
+     */
+    public ScanResultPage<CustomerRecord> scanSegmentPage(int segment, int totalSegments,
+                                                          Map<String, AttributeValue> exclusiveStartKey) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withSegment(segment)
+                .withTotalSegments(totalSegments)
+                .withExclusiveStartKey(exclusiveStartKey)
+                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        return mapper.scanPage(CustomerRecord.class, scanExpression);
+    }
+
+    /**
+     * Scans every customer.  Pages are read as the result is iterated and dropped once passed, so memory use doesn't
+     * grow with the table.
+     */
+    public Iterable<CustomerRecord> scanAll() {
+        return mapper.scan(CustomerRecord.class, new DynamoDBScanExpression(), DynamoDBMapperConfig.builder()
+                .withPaginationLoadingStrategy(DynamoDBMapperConfig.PaginationLoadingStrategy.ITERATION_ONLY)
+                .build());
+    }
+}
@@ -0,0 +1,44 @@
+package com.kenzie.marketing.application.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out DynamoDB reads so they consume on average no more than a fixed number of capacity units per second.
+ *
+ * A read's capacity is only known once it completes, so each read is paid for after the fact by delaying the reads
+ * that follow it.  Shared by every thread of a parallel scan.
+ */
+class CapacityRateLimiter {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double unitsPerSecond;
+    private long nextFreeNanos;
+
+    /**
+     * @param unitsPerSecond the average capacity units allowed per second, or 0 for no limit
+     */
+    CapacityRateLimiter(double unitsPerSecond) {
+        this.unitsPerSecond = unitsPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until the capacity consumed so far is paid for, then charges the given units to later callers.
+     */
+    void acquire(double units) throws InterruptedException {
+        if (unitsPerSecond <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFreeNanos);
+            nextFreeNanos = start + (long) (units / unitsPerSecond * NANOS_PER_SECOND);
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.kenzie.marketing.application.service;
+
+import com.kenzie.marketing.application.controller.model.CustomerResponse;
+import com.kenzie.marketing.application.repositories.CustomerScanRepository;
+import com.kenzie.marketing.application.repositories.model.CustomerRecord;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Exports every customer as newline delimited JSON.
+ *
+ * The table is read with a DynamoDB parallel scan, so its segments are read at the same time on the export executor
+ * instead of one page after another.  The read capacity consumed by all segments together can be capped, so a full
+ * export doesn't starve the application of read capacity.  Referrer names are read without the customer cache, so
+ * an export doesn't evict the customers that are actually hot.
+ */
+@Service
+public class CustomerExportService {
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private CustomerScanRepository customerScanRepository;
+    private CustomerService customerService;
+    private ExecutorService exportExecutor;
+    private ObjectMapper objectMapper;
+    private int totalSegments;
+    private double readCapacityPerSecond;
+    private Path exportDirectory;
+
+    public CustomerExportService(CustomerScanRepository customerScanRepository,
+                                 CustomerService customerService,
+                                 @Qualifier("customerExportExecutor") ExecutorService exportExecutor,
+                                 ObjectMapper objectMapper,
+                                 @Value("${customer.export.segments:4}") int totalSegments,
+                                 @Value("${customer.export.readCapacityPerSecond:0}") double readCapacityPerSecond,
+                                 @Value("${customer.export.directory:}") String exportDirectory) {
+        if (totalSegments < 1) {
+            throw new IllegalArgumentException("customer.export.segments must be at least 1");
+        }
+        this.customerScanRepository = customerScanRepository;
+        this.customerService = customerService;
+        this.exportExecutor = exportExecutor;
+        this.objectMapper = objectMapper;
+        this.totalSegments = totalSegments;
+        this.readCapacityPerSecond = readCapacityPerSecond;
+        this.exportDirectory = exportDirectory.isEmpty()
+                ? Paths.get(System.getProperty("java.io.tmpdir"))
+                : Paths.get(exportDirectory);
+    }
+
+    /**
+     * Writes every customer to the stream, one JSON object per line.  Customers are written as their pages arrive,
+     * in no particular order.
+     * @param outputStream the stream to write to, which is flushed but not closed
+     * @return the number of customers written
+     */
+    public long exportCustomers(OutputStream outputStream) throws IOException {
+        AtomicLong written = new AtomicLong();
+        try {
+            scanAllSegments(customers -> {
+                try {
+                    for (CustomerResponse customer : customers) {
+                        outputStream.write(objectMapper.writeValueAsBytes(customer));
+                        outputStream.write('\n');
+                    }
+                    // Every page is flushed, so the reader keeps pace with the scan
+                    outputStream.flush();
+                    written.addAndGet(customers.size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return written.get();
+    }
+
+    /**
+     * Writes every customer to a new file in the export directory, one JSON object per line.  The customers are
+     * written to a temporary file that is only renamed to the export file once every segment was read, so a failed
+     * export never leaves a file behind that looks finished.
+     * @return the file written
+     */
+    public Path exportCustomersToFile() throws IOException {
+        Files.createDirectories(exportDirectory);
+        String fileName = "customers-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".ndjson";
+        Path exportFile = exportDirectory.resolve(fileName);
+        Path partialFile = Files.createTempFile(exportDirectory, fileName, ".partial");
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(partialFile))) {
+                exportCustomers(outputStream);
+            }
+            return Files.move(partialFile, exportFile, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partialFile);
+        }
+    }
+
+    /**
+     * Scans every segment on the export executor.  Pages are passed to the consumer one at a time, in the order they
+     * arrive.  Scans are waited on in the order they finish, so the first failure stops the other segments right
+     * away instead of after the segments submitted before it.
+     */
+    private void scanAllSegments(Consumer<List<CustomerResponse>> consumer) {
+        CapacityRateLimiter rateLimiter = new CapacityRateLimiter(readCapacityPerSecond);
+        AtomicBoolean stopped = new AtomicBoolean();
+        Object consumerLock = new Object();
+
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(exportExecutor);
+        List<Future<Void>> segmentScans = new ArrayList<>();
+        for (int segment = 0; segment < totalSegments; segment++) {
+            int currentSegment = segment;
+            segmentScans.add(completionService.submit(() -> {
+                Map<String, AttributeValue> exclusiveStartKey = null;
+                try {
+                    do {
+                        ScanResultPage<CustomerRecord> page = customerScanRepository
+                                .scanSegmentPage(currentSegment, totalSegments, exclusiveStartKey);
+                        List<CustomerResponse> customers =
+                                customerService.toUncachedCustomerResponses(page.getResults());
+                        synchronized (consumerLock) {
+                            if (stopped.get()) {
+                                return null;
+                            }
+                            consumer.accept(customers);
+                        }
+                        if (page.getConsumedCapacity() != null) {
+                            rateLimiter.acquire(page.getConsumedCapacity().getCapacityUnits());
+                        }
+                        exclusiveStartKey = page.getLastEvaluatedKey();
+                    } while (exclusiveStartKey != null && !stopped.get());
+                } catch (Exception e) {
+                    // Stops the other segments between pages, before the failure is picked up below
+                    stopped.set(true);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (int i = 0; i < segmentScans.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting customers", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Could not export customers", e.getCause());
+        } finally {
+            stopped.set(true);
+            segmentScans.forEach(segmentScan -> segmentScan.cancel(true));
+        }
+    }
+}
@@ -1,24 +1,38 @@
 package com.kenzie.marketing.application.service;
 
+import com.kenzie.marketing.application.config.CacheConfig;
 import com.kenzie.marketing.application.controller.model.CreateCustomerRequest;
+import com.kenzie.marketing.application.controller.model.CustomerPageResponse;
 import com.kenzie.marketing.application.controller.model.CustomerResponse;
 import com.kenzie.marketing.application.controller.model.LeaderboardUiEntry;
 import com.kenzie.marketing.application.repositories.CustomerRepository;
+import com.kenzie.marketing.application.repositories.CustomerScanRepository;
 import com.kenzie.marketing.application.repositories.model.CustomerRecord;
 import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.model.Referral;
 import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.client.ReferralServiceClient;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -29,13 +43,20 @@ public class CustomerService {
     private static final Double REFERRAL_BONUS_FIRST_LEVEL = 10.0;
     private static final Double REFERRAL_BONUS_SECOND_LEVEL = 3.0;
     private static final Double REFERRAL_BONUS_THIRD_LEVEL = 1.0;
+    private static final int MAX_BATCH_GET_KEYS = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
 
     private CustomerRepository customerRepository;
+    private CustomerScanRepository customerScanRepository;
     private ReferralServiceClient referralServiceClient;
+    private CacheManager cacheManager;
 
-    public CustomerService(CustomerRepository customerRepository, ReferralServiceClient referralServiceClient) {
+    public CustomerService(CustomerRepository customerRepository, CustomerScanRepository customerScanRepository,
+                           ReferralServiceClient referralServiceClient, CacheManager cacheManager) {
         this.customerRepository = customerRepository;
+        this.customerScanRepository = customerScanRepository;
         this.referralServiceClient = referralServiceClient;
+        this.cacheManager = cacheManager;
     }
 
     /**
@@ -48,10 +69,46 @@ public class CustomerService {
                 .collect(Collectors.toList());
 
         // Task 1 - Add your code here
-        return records.stream()
-                .map(record -> toCustomerResponse(record))
-                .collect(Collectors.toList());
+        return toCustomerResponses(records);
+
+    }
 
+    /**
+     * findCustomerPage - Reads one page of customers, so callers can walk the table without loading all of it
+     * @param cursor the nextCursor of the previous page, or null for the first page
+     * @param pageSize the maximum number of customers on the page, between 1 and MAX_PAGE_SIZE
+     * @return the page, with a nextCursor unless it is the last one
+     */
+    public CustomerPageResponse findCustomerPage(String cursor, int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        ScanResultPage<CustomerRecord> page = customerScanRepository.scanPage(decodeCursor(cursor), pageSize);
+
+        CustomerPageResponse pageResponse = new CustomerPageResponse();
+        pageResponse.setCustomers(toCustomerResponses(page.getResults()));
+        pageResponse.setNextCursor(encodeCursor(CustomerScanRepository.getLastEvaluatedId(page)));
+        return pageResponse;
+    }
+
+    /**
+     * forEachCustomer - Passes every customer to the consumer while the table is still being scanned.  Referrer names
+     * are resolved one batch at a time, so only a single batch of customers is held in memory, and without going
+     * through the customer cache.
+     * @param consumer receives each customer
+     */
+    public void forEachCustomer(Consumer<CustomerResponse> consumer) {
+        List<CustomerRecord> batch = new ArrayList<>();
+        for (CustomerRecord record : customerScanRepository.scanAll()) {
+            batch.add(record);
+            if (batch.size() == MAX_BATCH_GET_KEYS) {
+                toUncachedCustomerResponses(batch).forEach(consumer);
+                batch.clear();
+            }
+        }
+        toUncachedCustomerResponses(batch).forEach(consumer);
     }
 
     /**
@@ -122,8 +179,14 @@ public class CustomerService {
         if (customerExists.isEmpty()) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Customer Not Found");
         }
-        CustomerRecord customerRecord = customerExists.get();
+        // The found record may be the instance held by the customer cache, so it is copied rather than changed.
+        // Readers keep seeing the saved name until save writes the new record through to the cache.
+        CustomerRecord existingRecord = customerExists.get();
+        CustomerRecord customerRecord = new CustomerRecord();
+        customerRecord.setId(existingRecord.getId());
         customerRecord.setName(customerName);
+        customerRecord.setDateCreated(existingRecord.getDateCreated());
+        customerRecord.setReferrerId(existingRecord.getReferrerId());
         customerRepository.save(customerRecord);
 
         // Task 1 - Add your code here
@@ -169,16 +232,22 @@ public class CustomerService {
         if (referrals == null) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Referral is null");
         }
-        CustomerRecord record = new CustomerRecord();
 
         // Task 1 - Add your code here
+        // The referred customers and their referrer are all looked up in one batch
+        Set<String> customerIds = new HashSet<>();
+        customerIds.add(customerId);
+        referrals.forEach(referral -> customerIds.add(referral.getCustomerId()));
+        Map<String, String> customerNames = findCustomerNames(customerIds);
+
         List<CustomerResponse> customerResponseList = referrals.stream()
                 .map(referral -> {
+                    CustomerRecord record = new CustomerRecord();
                     record.setReferrerId(referral.getReferrerId());
                     record.setDateCreated(referral.getReferralDate());
                     record.setId(referral.getCustomerId());
-                    record.setName(getCustomer(referral.getCustomerId()).getName());
-                    return toCustomerResponse(record);
+                    record.setName(customerNames.get(referral.getCustomerId()));
+                    return toCustomerResponse(record, customerNames);
                 })
                 .collect(Collectors.toList());
 
@@ -194,16 +263,16 @@ public class CustomerService {
         // Task 2 - Add your code here
         List<LeaderboardEntry> leaderboardEntries = referralServiceClient.getLeaderboard();
         List<LeaderboardUiEntry> leaderboardUiEntries = new ArrayList<>();
-
+        Map<String, String> customerNames = findCustomerNames(leaderboardEntries.stream()
+                .map(LeaderboardEntry::getCustomerId)
+                .collect(Collectors.toSet()));
 
         for (LeaderboardEntry leaderboardEntry: leaderboardEntries) {
               LeaderboardUiEntry leaderboardUiEntry = new LeaderboardUiEntry();
-              String name;
-              if (getCustomer(leaderboardEntry.getCustomerId()) == null) {
-                  name = "empty";
-                  leaderboardUiEntry.setCustomerName(name);
+              if (!customerNames.containsKey(leaderboardEntry.getCustomerId())) {
+                  leaderboardUiEntry.setCustomerName("empty");
               } else {
-                  leaderboardUiEntry.setCustomerName(getCustomer(leaderboardEntry.getCustomerId()).getName());
+                  leaderboardUiEntry.setCustomerName(customerNames.get(leaderboardEntry.getCustomerId()));
               }
               leaderboardUiEntry.setCustomerId(leaderboardEntry.getCustomerId());
               leaderboardUiEntry.setNumReferrals(leaderboardEntry.getNumReferrals());
@@ -223,12 +292,104 @@ public class CustomerService {
             return null;
         }
 
+        Map<String, String> referrerNames = new HashMap<>();
+        if (record.getReferrerId() != null && !record.getReferrerId().isEmpty()) {
+            customerRepository.findById(record.getReferrerId())
+                    .ifPresent(referrer -> referrerNames.put(referrer.getId(), referrer.getName()));
+        }
+        return toCustomerResponse(record, referrerNames);
+    }
+
+    // Cursors are opaque to callers, so the key they hold can change without breaking anyone
+    private static String encodeCursor(String lastEvaluatedId) {
+        if (lastEvaluatedId == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(lastEvaluatedId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    /**
+     * Converts a result set, resolving every distinct referrer name with batched reads instead of one read per row.
+     */
+    List<CustomerResponse> toCustomerResponses(List<CustomerRecord> records) {
+        return toCustomerResponses(records, true);
+    }
+
+    /**
+     * Converts a result set like toCustomerResponses, but reads referrer names straight from the table without
+     * touching the customer cache, so a full table scan doesn't evict the customers that are actually hot.
+     */
+    List<CustomerResponse> toUncachedCustomerResponses(List<CustomerRecord> records) {
+        return toCustomerResponses(records, false);
+    }
+
+    private List<CustomerResponse> toCustomerResponses(List<CustomerRecord> records, boolean useCache) {
+        Map<String, String> referrerNames = findCustomerNames(records.stream()
+                .map(CustomerRecord::getReferrerId)
+                .collect(Collectors.toSet()), useCache);
+
+        return records.stream()
+                .map(record -> toCustomerResponse(record, referrerNames))
+                .collect(Collectors.toList());
+    }
+
+    private Map<String, String> findCustomerNames(Collection<String> customerIds) {
+        return findCustomerNames(customerIds, true);
+    }
+
+    /**
+     * Looks up the names of many customers.  Customers in the customer cache are served from it, the rest are read
+     * with findAllById, a DynamoDB BatchGetItem which takes at most MAX_BATCH_GET_KEYS keys per call, and cached.
+     * @param useCache false to read every customer from the table and leave the customer cache untouched
+     * @return the name of every customer that exists, keyed by customer id
+     */
+    private Map<String, String> findCustomerNames(Collection<String> customerIds, boolean useCache) {
+        Cache customerCache = useCache ? cacheManager.getCache(CacheConfig.CUSTOMER_CACHE) : null;
+        Map<String, String> customerNames = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        customerIds.stream()
+                .filter(id -> id != null && !id.isEmpty())
+                .distinct()
+                .forEach(id -> {
+                    CustomerRecord cachedCustomer = customerCache == null
+                            ? null
+                            : customerCache.get(id, CustomerRecord.class);
+                    if (cachedCustomer != null) {
+                        customerNames.put(id, cachedCustomer.getName());
+                    } else {
+                        misses.add(id);
+                    }
+                });
+
+        for (int start = 0; start < misses.size(); start += MAX_BATCH_GET_KEYS) {
+            List<String> chunk = misses.subList(start, Math.min(start + MAX_BATCH_GET_KEYS, misses.size()));
+            for (CustomerRecord customer : customerRepository.findAllById(chunk)) {
+                if (customerCache != null) {
+                    customerCache.put(customer.getId(), customer);
+                }
+                customerNames.put(customer.getId(), customer.getName());
+            }
+        }
+        return customerNames;
+    }
+
+    private CustomerResponse toCustomerResponse(CustomerRecord record, Map<String, String> referrerNames) {
         CustomerResponse customerResponse = new CustomerResponse();
 
         if(record.getReferrerId() != null && !record.getReferrerId().isEmpty()) {
-            if(customerRepository.findById(record.getReferrerId()).isPresent()) {
-                customerResponse.setReferrerName(customerRepository.findById(record.getReferrerId()).get().getName());
-            }
+            customerResponse.setReferrerName(referrerNames.get(record.getReferrerId()));
         }
         customerResponse.setId(record.getId());
         customerResponse.setName(record.getName());
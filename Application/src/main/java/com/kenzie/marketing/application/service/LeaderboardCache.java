@@ -0,0 +1,125 @@
+package com.kenzie.marketing.application.service;
+
+import com.kenzie.marketing.application.controller.model.LeaderboardUiEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the last built leaderboard page and rebuilds it in the background.
+ *
+ * Readers are served the last good snapshot, even while a newer one is being built (stale-while-revalidate).  Only
+ * a reader that arrives before the first snapshot was built waits, and it shares the build that is already running.
+ * Rebuilds run on the shared executorService pool, at most one at a time, and a failed rebuild keeps the previous
+ * snapshot.
+ */
+@Component
+public class LeaderboardCache {
+    private static final Logger log = LoggerFactory.getLogger(LeaderboardCache.class);
+
+    private CustomerService customerService;
+    private ExecutorService executorService;
+    private long refreshIntervalMillis;
+
+    private volatile Snapshot snapshot;
+    private final AtomicReference<CompletableFuture<List<LeaderboardUiEntry>>> inFlightRefresh =
+            new AtomicReference<>();
+
+    public LeaderboardCache(CustomerService customerService,
+                            @Qualifier("executorService") ExecutorService executorService,
+                            @Value("${leaderboard.cache.refreshMillis:30000}") long refreshIntervalMillis) {
+        this.customerService = customerService;
+        this.executorService = executorService;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * getLeaderboard - Returns the current leaderboard snapshot, starting a rebuild if it is older than the refresh
+     * interval
+     * @return the leaderboard, most referrals first
+     */
+    public List<LeaderboardUiEntry> getLeaderboard() {
+        Snapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            // Nothing to serve yet, so wait for the first snapshot to be built
+            try {
+                return refresh().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        if (System.currentTimeMillis() - currentSnapshot.builtAtMillis > refreshIntervalMillis) {
+            refresh();
+        }
+        return currentSnapshot.entries;
+    }
+
+    // Runs on the scheduler thread, which only starts the rebuild so it is never held up by one
+    @Scheduled(initialDelay = 0, fixedDelayString = "${leaderboard.cache.refreshMillis:30000}")
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    /**
+     * Starts a rebuild on the executor, unless one is already running.
+     * @return the running rebuild
+     */
+    CompletableFuture<List<LeaderboardUiEntry>> refresh() {
+        CompletableFuture<List<LeaderboardUiEntry>> refresh = new CompletableFuture<>();
+        if (!inFlightRefresh.compareAndSet(null, refresh)) {
+            CompletableFuture<List<LeaderboardUiEntry>> runningRefresh = inFlightRefresh.get();
+            if (runningRefresh != null) {
+                return runningRefresh;
+            }
+            return refresh();
+        }
+
+        try {
+            executorService.execute(() -> {
+                try {
+                    List<LeaderboardUiEntry> entries = customerService.getLeaderboard();
+                    snapshot = new Snapshot(Collections.unmodifiableList(entries), System.currentTimeMillis());
+                    inFlightRefresh.set(null);
+                    refresh.complete(entries);
+                } catch (Throwable e) {
+                    log.warn("Could not rebuild the leaderboard, the previous snapshot is kept", e);
+                    inFlightRefresh.set(null);
+                    refresh.completeExceptionally(e);
+                    if (e instanceof Error) {
+                        throw (Error) e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlightRefresh.set(null);
+            refresh.completeExceptionally(e);
+        }
+        return refresh;
+    }
+
+    private static class Snapshot {
+        private final List<LeaderboardUiEntry> entries;
+        private final long builtAtMillis;
+
+        Snapshot(List<LeaderboardUiEntry> entries, long builtAtMillis) {
+            this.entries = entries;
+            this.builtAtMillis = builtAtMillis;
+        }
+    }
+}
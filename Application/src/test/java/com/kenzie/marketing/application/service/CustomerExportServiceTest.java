@@ -0,0 +1,212 @@
+package com.kenzie.marketing.application.service;
+
+import com.kenzie.marketing.application.config.CacheConfig;
+import com.kenzie.marketing.application.repositories.CustomerRepository;
+import com.kenzie.marketing.application.repositories.CustomerScanRepository;
+import com.kenzie.marketing.application.repositories.model.CustomerRecord;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kenzie.marketing.referral.model.client.ReferralServiceClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Matchers;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.UUID.randomUUID;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CustomerExportServiceTest {
+    private CustomerRepository customerRepository;
+    private CustomerScanRepository customerScanRepository;
+    private ExecutorService exportExecutor;
+    private CacheManager cacheManager;
+    private CustomerService customerService;
+    private CustomerExportService customerExportService;
+
+    @TempDir
+    Path exportDirectory;
+
+    @BeforeEach
+    void setup() {
+        customerRepository = mock(CustomerRepository.class);
+        customerScanRepository = mock(CustomerScanRepository.class);
+        exportExecutor = Executors.newFixedThreadPool(2);
+        cacheManager = new ConcurrentMapCacheManager(CacheConfig.CUSTOMER_CACHE);
+        customerService = new CustomerService(customerRepository, customerScanRepository,
+                mock(ReferralServiceClient.class), cacheManager);
+        customerExportService = new CustomerExportService(customerScanRepository, customerService, exportExecutor,
+                new ObjectMapper(), 2, 0, "");
+    }
+
+    @AfterEach
+    void tearDown() {
+        exportExecutor.shutdownNow();
+    }
+
+    /** ------------------------------------------------------------------------
+     *  customerExportService.exportCustomers
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void exportCustomers_reads_every_page_of_every_segment() throws Exception {
+        // GIVEN
+        Map<String, AttributeValue> segmentZeroKey = Collections.singletonMap("Id", new AttributeValue("a"));
+        when(customerScanRepository.scanSegmentPage(0, 2, null)).thenReturn(page(segmentZeroKey, customer()));
+        when(customerScanRepository.scanSegmentPage(0, 2, segmentZeroKey)).thenReturn(page(null, customer()));
+        when(customerScanRepository.scanSegmentPage(1, 2, null)).thenReturn(page(null, customer()));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // WHEN
+        long exported = customerExportService.exportCustomers(outputStream);
+
+        // THEN
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        Assertions.assertEquals(3, exported, "Every customer is exported");
+        Assertions.assertEquals(3, lines.length, "Every customer is written on its own line");
+        for (String line : lines) {
+            Assertions.assertTrue(line.startsWith("{\"id\":"), "Each line is a customer");
+        }
+    }
+
+    @Test
+    void exportCustomers_failed_segment_stops_the_others() {
+        // GIVEN
+        Map<String, AttributeValue> endlessKey = Collections.singletonMap("Id", new AttributeValue("a"));
+        when(customerScanRepository.scanSegmentPage(Matchers.eq(0), Matchers.eq(2), Matchers.any()))
+                .thenReturn(page(endlessKey, customer()));
+        when(customerScanRepository.scanSegmentPage(1, 2, null))
+                .thenThrow(new IllegalStateException("segment failed"));
+
+        // WHEN - THEN
+        IllegalStateException exception = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> Assertions.assertThrows(IllegalStateException.class,
+                        () -> customerExportService.exportCustomers(new ByteArrayOutputStream())),
+                "The endless segment is stopped by the failure");
+        Assertions.assertEquals("segment failed", exception.getMessage(), "The segment's failure is reported");
+    }
+
+    @Test
+    void exportCustomers_leaves_the_customer_cache_alone() throws Exception {
+        // GIVEN
+        CustomerRecord referrer = customer();
+        CustomerRecord referred = customer();
+        referred.setReferrerId(referrer.getId());
+        when(customerScanRepository.scanSegmentPage(0, 2, null)).thenReturn(page(null, referred));
+        when(customerScanRepository.scanSegmentPage(1, 2, null)).thenReturn(page(null));
+        when(customerRepository.findAllById(List.of(referrer.getId()))).thenReturn(List.of(referrer));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // WHEN
+        customerExportService.exportCustomers(outputStream);
+
+        // THEN
+        Assertions.assertTrue(outputStream.toString(StandardCharsets.UTF_8)
+                .contains("\"referrerName\":\"customername\""), "The referrer name is exported");
+        Assertions.assertNull(cacheManager.getCache(CacheConfig.CUSTOMER_CACHE).get(referrer.getId()),
+                "The referrer read by the export is not cached");
+    }
+
+    /** ------------------------------------------------------------------------
+     *  customerExportService.exportCustomersToFile
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void exportCustomersToFile_writes_the_export_file() throws Exception {
+        // GIVEN
+        CustomerExportService fileExportService = new CustomerExportService(customerScanRepository,
+                customerService, exportExecutor, new ObjectMapper(), 2, 0, exportDirectory.toString());
+        when(customerScanRepository.scanSegmentPage(0, 2, null)).thenReturn(page(null, customer()));
+        when(customerScanRepository.scanSegmentPage(1, 2, null)).thenReturn(page(null, customer()));
+
+        // WHEN
+        Path exportFile = fileExportService.exportCustomersToFile();
+
+        // THEN
+        Assertions.assertTrue(exportFile.getFileName().toString().endsWith(".ndjson"), "The export file is named");
+        Assertions.assertEquals(2, Files.readAllLines(exportFile).size(), "Every customer is written to the file");
+        Assertions.assertEquals(List.of(exportFile), listFiles(exportDirectory), "Only the export file is left");
+    }
+
+    @Test
+    void exportCustomersToFile_failed_segment_leaves_no_file() throws Exception {
+        // GIVEN
+        CustomerExportService fileExportService = new CustomerExportService(customerScanRepository,
+                customerService, exportExecutor, new ObjectMapper(), 2, 0, exportDirectory.toString());
+        when(customerScanRepository.scanSegmentPage(0, 2, null)).thenReturn(page(null, customer()));
+        when(customerScanRepository.scanSegmentPage(1, 2, null))
+                .thenThrow(new IllegalStateException("segment failed"));
+
+        // WHEN
+        Assertions.assertThrows(IllegalStateException.class, () -> fileExportService.exportCustomersToFile());
+
+        // THEN
+        Assertions.assertEquals(List.of(), listFiles(exportDirectory), "No partial export file is left behind");
+    }
+
+    @Test
+    void exportCustomers_limits_consumed_read_capacity() throws Exception {
+        // GIVEN
+        CustomerExportService limitedExportService = new CustomerExportService(customerScanRepository,
+                customerService, exportExecutor, new ObjectMapper(), 1, 50, "");
+        Map<String, AttributeValue> firstKey = Collections.singletonMap("Id", new AttributeValue("a"));
+        Map<String, AttributeValue> secondKey = Collections.singletonMap("Id", new AttributeValue("b"));
+        when(customerScanRepository.scanSegmentPage(0, 1, null)).thenReturn(page(firstKey, customer()));
+        when(customerScanRepository.scanSegmentPage(0, 1, firstKey)).thenReturn(page(secondKey, customer()));
+        when(customerScanRepository.scanSegmentPage(0, 1, secondKey)).thenReturn(page(null, customer()));
+
+        // WHEN
+        long start = System.nanoTime();
+        long exported = limitedExportService.exportCustomers(new ByteArrayOutputStream());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // THEN
+        Assertions.assertEquals(3, exported, "Every customer is exported");
+        // Each page consumes 5 units at 50 units per second, so the pages after the first wait 100ms each
+        Assertions.assertTrue(elapsedMillis >= 180, "The reads are spaced out, took " + elapsedMillis + "ms");
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static CustomerRecord customer() {
+        CustomerRecord record = new CustomerRecord();
+        record.setId(randomUUID().toString());
+        record.setName("customername");
+        return record;
+    }
+
+    private static ScanResultPage<CustomerRecord> page(Map<String, AttributeValue> lastEvaluatedKey,
+                                                       CustomerRecord... records) {
+        ScanResultPage<CustomerRecord> page = new ScanResultPage<>();
+        page.setResults(List.of(records));
+        page.setLastEvaluatedKey(lastEvaluatedKey);
+        page.setConsumedCapacity(new ConsumedCapacity().withCapacityUnits(5.0));
+        return page;
+    }
+}
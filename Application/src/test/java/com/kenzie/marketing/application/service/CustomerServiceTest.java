@@ -1,20 +1,27 @@
 package com.kenzie.marketing.application.service;
 
+import com.kenzie.marketing.application.config.CacheConfig;
 import com.kenzie.marketing.application.controller.model.CreateCustomerRequest;
+import com.kenzie.marketing.application.controller.model.CustomerPageResponse;
 import com.kenzie.marketing.application.controller.model.CustomerResponse;
 import com.kenzie.marketing.application.repositories.CustomerRepository;
+import com.kenzie.marketing.application.repositories.CustomerScanRepository;
 import com.kenzie.marketing.application.repositories.model.CustomerRecord;
 
 import com.kenzie.marketing.referral.model.client.ReferralServiceClient;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.exceptions.base.MockitoAssertionError;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,14 +33,17 @@ import static org.mockito.Mockito.when;
 
 public class CustomerServiceTest {
     private CustomerRepository customerRepository;
+    private CustomerScanRepository customerScanRepository;
     private CustomerService customerService;
     private ReferralServiceClient referralServiceClient;
 
     @BeforeEach
     void setup() {
         customerRepository = mock(CustomerRepository.class);
+        customerScanRepository = mock(CustomerScanRepository.class);
         referralServiceClient = mock(ReferralServiceClient.class);
-        customerService = new CustomerService(customerRepository, referralServiceClient);
+        customerService = new CustomerService(customerRepository, customerScanRepository, referralServiceClient,
+                new ConcurrentMapCacheManager(CacheConfig.CUSTOMER_CACHE));
     }
 
     /** ------------------------------------------------------------------------
@@ -80,6 +90,88 @@ public class CustomerServiceTest {
         }
     }
 
+    @Test
+    void findAllCustomers_resolves_referrer_names_in_one_batch() {
+        // GIVEN
+        CustomerRecord referrer = new CustomerRecord();
+        referrer.setId(randomUUID().toString());
+        referrer.setName("referrername");
+
+        List<CustomerRecord> recordList = new ArrayList<>();
+        recordList.add(referrer);
+        for (int i = 0; i < 3; i++) {
+            CustomerRecord referred = new CustomerRecord();
+            referred.setId(randomUUID().toString());
+            referred.setName("customername" + i);
+            referred.setReferrerId(referrer.getId());
+            recordList.add(referred);
+        }
+        when(customerRepository.findAll()).thenReturn(recordList);
+        when(customerRepository.findAllById(Matchers.any())).thenReturn(List.of(referrer));
+
+        // WHEN
+        List<CustomerResponse> customers = customerService.findAllCustomers();
+
+        // THEN
+        for (CustomerResponse customer : customers) {
+            if (customer.getReferrerId() != null) {
+                Assertions.assertEquals("referrername", customer.getReferrerName(), "The referrer name matches");
+            }
+        }
+        verify(customerRepository).findAllById(Matchers.any());
+        verify(customerRepository, never()).findById(Matchers.any());
+    }
+
+    @Test
+    void findCustomerPage_cursor_continues_the_scan() {
+        // GIVEN
+        CustomerRecord record = new CustomerRecord();
+        record.setId(randomUUID().toString());
+        record.setName("customername");
+
+        ScanResultPage<CustomerRecord> firstPage = new ScanResultPage<>();
+        firstPage.setResults(List.of(record));
+        firstPage.setLastEvaluatedKey(Collections.singletonMap("Id", new AttributeValue(record.getId())));
+        when(customerScanRepository.scanPage(null, 1)).thenReturn(firstPage);
+
+        ScanResultPage<CustomerRecord> lastPage = new ScanResultPage<>();
+        lastPage.setResults(new ArrayList<>());
+        when(customerScanRepository.scanPage(record.getId(), 1)).thenReturn(lastPage);
+
+        // WHEN
+        CustomerPageResponse page = customerService.findCustomerPage(null, 1);
+        CustomerPageResponse nextPage = customerService.findCustomerPage(page.getNextCursor(), 1);
+
+        // THEN
+        Assertions.assertEquals(1, page.getCustomers().size(), "The first page has the customer");
+        Assertions.assertNotNull(page.getNextCursor(), "The first page has a cursor");
+        Assertions.assertTrue(nextPage.getCustomers().isEmpty(), "The cursor continues after the customer");
+        Assertions.assertNull(nextPage.getNextCursor(), "The last page has no cursor");
+    }
+
+    @Test
+    void findAllCustomers_serves_cached_referrer_names() {
+        // GIVEN
+        CustomerRecord referrer = new CustomerRecord();
+        referrer.setId(randomUUID().toString());
+        referrer.setName("referrername");
+
+        CustomerRecord referred = new CustomerRecord();
+        referred.setId(randomUUID().toString());
+        referred.setName("customername");
+        referred.setReferrerId(referrer.getId());
+        when(customerRepository.findAll()).thenReturn(List.of(referred));
+        when(customerRepository.findAllById(Matchers.any())).thenReturn(List.of(referrer));
+
+        // WHEN
+        customerService.findAllCustomers();
+        List<CustomerResponse> customers = customerService.findAllCustomers();
+
+        // THEN
+        Assertions.assertEquals("referrername", customers.get(0).getReferrerName(), "The cached name is used");
+        verify(customerRepository).findAllById(Matchers.any());
+    }
+
     /** ------------------------------------------------------------------------
      *  customerService.findByCustomerId
      *  ------------------------------------------------------------------------ **/
@@ -183,6 +275,29 @@ public class CustomerServiceTest {
         Assertions.assertEquals(record.getDateCreated(), oldCustomerRecord.getDateCreated(), "The customer date has not changed");
     }
 
+    @Test
+    void updateCustomer_failed_save_leaves_found_record_unchanged() {
+        // GIVEN
+        String customerId = randomUUID().toString();
+
+        CustomerRecord cachedCustomerRecord = new CustomerRecord();
+        cachedCustomerRecord.setId(customerId);
+        cachedCustomerRecord.setName("oldcustomername");
+        cachedCustomerRecord.setDateCreated("olddatecreated");
+
+        when(customerRepository.findById(customerId)).thenReturn(Optional.of(cachedCustomerRecord));
+        when(customerRepository.save(Matchers.any(CustomerRecord.class)))
+                .thenThrow(new IllegalStateException("save failed"));
+
+        // WHEN
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> customerService.updateCustomer(customerId, "newName"));
+
+        // THEN
+        Assertions.assertEquals("oldcustomername", cachedCustomerRecord.getName(),
+                "The record the repository returned, which may be cached, is not changed");
+    }
+
     @Test
     void updateCustomer_does_not_exist() {
         // GIVEN
@@ -0,0 +1,114 @@
+package com.kenzie.marketing.application.service;
+
+import com.kenzie.marketing.application.controller.model.LeaderboardUiEntry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LeaderboardCacheTest {
+    private CustomerService customerService;
+    private ExecutorService executorService;
+    private LeaderboardCache leaderboardCache;
+
+    @BeforeEach
+    void setup() {
+        customerService = mock(CustomerService.class);
+        executorService = Executors.newSingleThreadExecutor();
+        leaderboardCache = new LeaderboardCache(customerService, executorService, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    /** ------------------------------------------------------------------------
+     *  leaderboardCache.getLeaderboard
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void getLeaderboard_serves_stale_snapshot_while_rebuilding() throws Exception {
+        // GIVEN
+        List<LeaderboardUiEntry> first = List.of(entry("first"));
+        List<LeaderboardUiEntry> second = List.of(entry("second"));
+        when(customerService.getLeaderboard()).thenReturn(first);
+        leaderboardCache.getLeaderboard();
+
+        // Hold the executor, so the rebuild can't finish until the stale snapshot was served
+        CountDownLatch release = new CountDownLatch(1);
+        executorService.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        when(customerService.getLeaderboard()).thenReturn(second);
+
+        // WHEN
+        List<LeaderboardUiEntry> staleLeaderboard = leaderboardCache.getLeaderboard();
+        release.countDown();
+        leaderboardCache.refresh().get(5, TimeUnit.SECONDS);
+
+        // THEN
+        Assertions.assertEquals(first, staleLeaderboard, "The last snapshot is served during the rebuild");
+        Assertions.assertEquals(second, leaderboardCache.getLeaderboard(), "The rebuilt snapshot is served after it");
+    }
+
+    @Test
+    void getLeaderboard_empty_snapshot_is_served_without_rebuilding() {
+        // GIVEN
+        leaderboardCache = new LeaderboardCache(customerService, executorService, 60_000);
+        when(customerService.getLeaderboard()).thenReturn(Collections.emptyList());
+        leaderboardCache.getLeaderboard();
+
+        // WHEN
+        List<LeaderboardUiEntry> leaderboard = leaderboardCache.getLeaderboard();
+
+        // THEN
+        Assertions.assertTrue(leaderboard.isEmpty(), "The empty snapshot is served");
+        verify(customerService, times(1)).getLeaderboard();
+    }
+
+    /** ------------------------------------------------------------------------
+     *  leaderboardCache.refresh
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void refresh_failed_with_error_allows_next_rebuild() throws Exception {
+        // GIVEN
+        List<LeaderboardUiEntry> rebuilt = List.of(entry("rebuilt"));
+        when(customerService.getLeaderboard())
+                .thenThrow(new StackOverflowError())
+                .thenReturn(rebuilt);
+        Assertions.assertThrows(ExecutionException.class, () -> leaderboardCache.refresh().get(5, TimeUnit.SECONDS));
+
+        // WHEN
+        List<LeaderboardUiEntry> leaderboard = leaderboardCache.refresh().get(5, TimeUnit.SECONDS);
+
+        // THEN
+        Assertions.assertEquals(rebuilt, leaderboard, "A rebuild can start after one failed with an Error");
+    }
+
+    private static LeaderboardUiEntry entry(String customerId) {
+        LeaderboardUiEntry entry = new LeaderboardUiEntry();
+        entry.setCustomerId(customerId);
+        entry.setNumReferrals(1);
+        return entry;
+    }
+}
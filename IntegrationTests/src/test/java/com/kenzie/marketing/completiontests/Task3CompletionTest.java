@@ -19,7 +19,7 @@ import java.util.concurrent.ExecutorService;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -81,8 +81,8 @@ public class Task3CompletionTest {
             ).submit(any(Callable.class));
 
         verify(executorService,
-                times(1)
-                    .description("Shutdown should be called at least once")
+                never()
+                    .description("The executor is shared by every request and must not be shut down")
             ).shutdown();
     }
 }
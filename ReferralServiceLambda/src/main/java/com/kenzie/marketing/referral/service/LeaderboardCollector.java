@@ -0,0 +1,54 @@
+package com.kenzie.marketing.referral.service;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the top K leaderboard entries offered to it. Entries are held in a min-heap of at most K elements, so
+ * memory stays O(K) however many nodes are offered, and each offer costs O(log K).
+ *
+ * Entries are ranked the same way as the referral count index: customers without referrals are left out, and ties
+ * are broken by customerId in reverse order, as a sorted set returns them.  Both ways of building the leaderboard
+ * therefore return the same entries.
+ *
+ * Offers may come from any thread.
+ */
+public class LeaderboardCollector {
+
+    private static final Comparator<LeaderboardEntry> BY_RANK =
+            Comparator.comparingInt(LeaderboardEntry::getNumReferrals)
+                    .thenComparing(LeaderboardEntry::getCustomerId);
+
+    private final int size;
+    private final PriorityQueue<LeaderboardEntry> topEntries;
+
+    public LeaderboardCollector(int size) {
+        this.size = size;
+        this.topEntries = new PriorityQueue<>(size + 1, BY_RANK);
+    }
+
+    public synchronized void offer(LeaderboardEntry entry) {
+        if (entry.getNumReferrals() < 1) {
+            return;
+        }
+        if (topEntries.size() < size) {
+            topEntries.add(entry);
+        } else if (BY_RANK.compare(entry, topEntries.peek()) > 0) {
+            topEntries.poll();
+            topEntries.add(entry);
+        }
+    }
+
+    /**
+     * @return the collected entries, most referrals first
+     */
+    public synchronized List<LeaderboardEntry> getTopEntries() {
+        List<LeaderboardEntry> entries = new ArrayList<>(topEntries);
+        entries.sort(BY_RANK.reversed());
+        return entries;
+    }
+}
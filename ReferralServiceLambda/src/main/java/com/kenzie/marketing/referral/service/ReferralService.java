@@ -1,5 +1,6 @@
 package com.kenzie.marketing.referral.service;
 
+import com.google.common.collect.Lists;
 import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.model.Referral;
@@ -12,112 +13,206 @@ import com.kenzie.marketing.referral.service.model.ReferralRecord;
 import org.w3c.dom.Node;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Collectors;
 
+@Singleton
 public class ReferralService {
 
+    private static final int DEFAULT_LEADERBOARD_SIZE = 5;
+    public static final int MAX_LEADERBOARD_SIZE = 100;
+    public static final int MAX_BATCH_SIZE = 100;
+
     private ReferralDao referralDao;
     private ExecutorService executor;
+    private int parallelism;
 
-    @Inject
     public ReferralService(ReferralDao referralDao) {
-        this.referralDao = referralDao;
-        this.executor = Executors.newCachedThreadPool();
+        this(referralDao, ForkJoinPool.commonPool());
     }
 
     // Necessary for testing, do not delete
     public ReferralService(ReferralDao referralDao, ExecutorService executor) {
+        this(referralDao, executor, getParallelism(executor));
+    }
+
+    /**
+     * @param referralDao the referral data source
+     * @param executor the worker pool that referral trees are walked on
+     * @param parallelism the number of workers in the pool, which sets how many batches a level is split into
+     */
+    @Inject
+    public ReferralService(@Named("ReferralDao") ReferralDao referralDao,
+                           @Named("ReferralExecutor") ExecutorService executor,
+                           @Named("ReferralParallelism") int parallelism) {
         this.referralDao = referralDao;
         this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
     }
 
     public List<LeaderboardEntry> getReferralLeaderboard() {
+        return getReferralLeaderboard(DEFAULT_LEADERBOARD_SIZE);
+    }
+
+    /**
+     * Finds the customers with the most direct referrals.
+     * @param size the number of leaderboard entries to return, between 1 and MAX_LEADERBOARD_SIZE
+     * @return the leaderboard, most referrals first
+     */
+    public List<LeaderboardEntry> getReferralLeaderboard(int size) {
+        if (size < 1 || size > MAX_LEADERBOARD_SIZE) {
+            throw new InvalidDataException("Leaderboard size must be between 1 and " + MAX_LEADERBOARD_SIZE);
+        }
+
         // Task 3 Code Here
-        List<ReferralRecord> roots = referralDao.findUsersWithoutReferrerId();
-        List<LeaderboardEntry> permTopFive = new ArrayList<>();
-        List<Future<List<LeaderboardEntry>>> threadFutures = new ArrayList<>();
-        for (ReferralRecord root: roots) {
-            ReferralTask task = new ReferralTask(referralDao, this, root);
-            threadFutures.add(executor.submit(task));
+        Optional<List<LeaderboardEntry>> indexedLeaderboard = referralDao.findTopReferrers(size);
+        if (indexedLeaderboard.isPresent()) {
+            return indexedLeaderboard.get();
         }
-        executor.shutdown();
-        for (Future<List<LeaderboardEntry>> entryFuture: threadFutures) {
-            try {
-                permTopFive.addAll(entryFuture.get());
-                permTopFive = permTopFive.stream()
-                        .sorted(Comparator.comparingInt(LeaderboardEntry::getNumReferrals).reversed())
-                        .limit(5)
-                        .collect(Collectors.toList());
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
+
+        // No referral count index is available, so walk every referral tree one level at a time.
+        // Each level is split into one batch per worker, and every batch is read from the cache in one round trip.
+        // Tasks feed their counts into the collector as they complete, so nothing is sorted until the end.
+        LeaderboardCollector collector = new LeaderboardCollector(size);
+        List<String> currentLevel = referralDao.findUsersWithoutReferrerId().stream()
+                .map(ReferralRecord::getCustomerId)
+                .collect(Collectors.toList());
+
+        while (!currentLevel.isEmpty()) {
+            List<Future<List<Referral>>> threadFutures = new ArrayList<>();
+            for (List<String> batch : partition(currentLevel)) {
+                threadFutures.add(executor.submit(new ReferralTask(this, collector, batch)));
             }
+
+            List<String> nextLevel = new ArrayList<>();
+            for (Future<List<Referral>> childrenFuture : threadFutures) {
+                try {
+                    for (Referral child : childrenFuture.get()) {
+                        nextLevel.add(child.getCustomerId());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    threadFutures.forEach(future -> future.cancel(true));
+                    throw new IllegalStateException("Interrupted while building the leaderboard", e);
+                } catch (ExecutionException e) {
+                    // A lost batch would drop its whole subtree from the counts, so fail instead of undercounting
+                    threadFutures.forEach(future -> future.cancel(true));
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException("Could not build the leaderboard", e.getCause());
+                }
+            }
+            currentLevel = nextLevel;
         }
-//            List<LeaderboardEntry> treeTopFive = findTopFive(root);
 
-        return permTopFive;
+        return collector.getTopEntries();
+    }
+
+    public CustomerReferrals getCustomerReferralSummary(String customerId) {
+        // The counts are kept up to date by addReferral, so this is usually a single lookup
+        return getCustomerReferralSummary(customerId, referralDao.findByCustomerId(customerId));
     }
 
-    private List<LeaderboardEntry> findTopFive (ReferralRecord root) {
-        Stack<Referral> rootsStack = new Stack<>();
-        List<LeaderboardEntry> referrals1 = new ArrayList<>();
-        Referral rootReferral = new Referral();
-        rootReferral.setCustomerId(root.getCustomerId());
-        Referral currentNode = rootReferral;
-        rootsStack.push(rootReferral);
-
-        while(!rootsStack.isEmpty()) {
-            currentNode = rootsStack.pop();
-            List<Referral> children = getDirectReferrals(currentNode.getCustomerId());
-
-            //check for max
-            LeaderboardEntry tempMax = new LeaderboardEntry();
-            tempMax.setCustomerId(currentNode.getCustomerId());
-            tempMax.setNumReferrals(children.size());
-            referrals1.add(tempMax);
-
-            if(children != null) {
-                rootsStack.addAll(children);
+    /**
+     * Finds the referral summaries of many customers, loading their referral records with a single batched read.
+     * @param customerIds the customers to summarize, at most MAX_BATCH_SIZE
+     * @return the referral summary of every customer, keyed by customerId in request order
+     */
+    public Map<String, CustomerReferrals> getCustomerReferralSummaries(Collection<String> customerIds) {
+        validateCustomerIds(customerIds);
+        Map<String, ReferralRecord> customerRecords = referralDao.findByCustomerIds(customerIds);
+
+        Map<String, CustomerReferrals> summaries = new LinkedHashMap<>();
+        for (String customerId : customerIds) {
+            if (!summaries.containsKey(customerId)) {
+                summaries.put(customerId, getCustomerReferralSummary(customerId, customerRecords.get(customerId)));
             }
         }
-        return referrals1.stream()
-                .sorted(Comparator.comparingInt(LeaderboardEntry::getNumReferrals).reversed())
-                .limit(5)
-                .collect(Collectors.toList());
+        return summaries;
     }
 
+    private CustomerReferrals getCustomerReferralSummary(String customerId, ReferralRecord customerRecord) {
+        if (customerRecord != null && customerRecord.hasReferralCounts()) {
+            return ReferralConverter.fromRecordToCustomerReferrals(customerRecord);
+        }
 
-
-    public CustomerReferrals getCustomerReferralSummary(String customerId) {
         CustomerReferrals referrals = new CustomerReferrals();
 
         // Task 2 Code Here
+        // Expand one level at a time, looking up the batches of a level concurrently on the worker pool
         List<Referral> referrals1 = getDirectReferrals(customerId);
-        List<Referral> referrals2 = new ArrayList<>();
-        List<Referral> referrals3 = new ArrayList<>();
-        for (Referral referral: referrals1) {
-            referrals2.addAll(getDirectReferrals(referral.getCustomerId()));
-        }
-
-        for (Referral referral: referrals2) {
-            referrals3.addAll(getDirectReferrals(referral.getCustomerId()));
-        }
+        List<Referral> referrals2 = getNextLevelReferrals(referrals1);
+        List<Referral> referrals3 = getNextLevelReferrals(referrals2);
 
         referrals.setNumFirstLevelReferrals(referrals1.size());
         referrals.setNumSecondLevelReferrals(referrals2.size());
         referrals.setNumThirdLevelReferrals(referrals3.size());
 
+        // Customers referred before the counts were materialized get them stored now, so this is the last walk,
+        // unless a referral under the customer was added meanwhile and the walk may have missed it
+        if (customerRecord != null) {
+            customerRecord.setNumFirstLevelReferrals(referrals1.size());
+            customerRecord.setNumSecondLevelReferrals(referrals2.size());
+            customerRecord.setNumThirdLevelReferrals(referrals3.size());
+            referralDao.initializeReferralCounts(customerRecord);
+        }
 
         return referrals;
     }
 
+    private List<Referral> getNextLevelReferrals(List<Referral> level) {
+        List<String> customerIds = level.stream()
+                .map(Referral::getCustomerId)
+                .collect(Collectors.toList());
+        List<Callable<Map<String, List<Referral>>>> lookups = partition(customerIds).stream()
+                .map(batch -> (Callable<Map<String, List<Referral>>>) () -> getDirectReferrals(batch))
+                .collect(Collectors.toList());
+
+        List<Referral> nextLevel = new ArrayList<>();
+        try {
+            for (Future<Map<String, List<Referral>>> lookup : executor.invokeAll(lookups)) {
+                lookup.get().values().forEach(nextLevel::addAll);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading referrals", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Could not load referrals", e.getCause());
+        }
+        return nextLevel;
+    }
+
+    /**
+     * Splits customer ids into about one batch per worker thread, so a level is looked up with as few cache round
+     * trips as possible while still keeping the whole pool busy.
+     */
+    private List<List<String>> partition(List<String> customerIds) {
+        int batchSize = (customerIds.size() + parallelism - 1) / parallelism;
+        return Lists.partition(customerIds, Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE)));
+    }
+
+    private static int getParallelism(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
 
     public List<Referral> getDirectReferrals(String customerId) {
         List<ReferralRecord> records = referralDao.findByReferrerId(customerId);
@@ -133,6 +228,35 @@ public class ReferralService {
         return referrals;
     }
 
+    /**
+     * Looks up the direct referrals of many customers with a single batched read.
+     * @param customerIds the customers to look up, at most MAX_BATCH_SIZE
+     * @return the direct referrals of every customer, keyed by customerId in request order
+     */
+    public Map<String, List<Referral>> getDirectReferrals(Collection<String> customerIds) {
+        validateCustomerIds(customerIds);
+        Map<String, List<ReferralRecord>> records = referralDao.findByReferrerIds(customerIds);
+
+        Map<String, List<Referral>> referrals = new LinkedHashMap<>();
+        for (String customerId : customerIds) {
+            List<ReferralRecord> customerRecords = records.get(customerId);
+            referrals.put(customerId, customerRecords == null ? new ArrayList<>() : customerRecords.stream()
+                    .map(ReferralConverter::fromRecordToReferral)
+                    .collect(Collectors.toList()));
+        }
+        return referrals;
+    }
+
+    private static void validateCustomerIds(Collection<String> customerIds) {
+        if (customerIds == null || customerIds.size() > MAX_BATCH_SIZE) {
+            throw new InvalidDataException("Batch requests must contain at most " + MAX_BATCH_SIZE + " Customer IDs");
+        }
+        for (String customerId : customerIds) {
+            if (customerId == null || customerId.length() == 0) {
+                throw new InvalidDataException("Request must contain a valid Customer ID");
+            }
+        }
+    }
 
     public ReferralResponse addReferral(ReferralRequest referral) {
         if (referral == null || referral.getCustomerId() == null || referral.getCustomerId().length() == 0) {
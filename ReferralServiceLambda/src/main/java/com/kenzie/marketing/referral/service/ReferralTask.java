@@ -2,54 +2,42 @@ package com.kenzie.marketing.referral.service;
 
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.model.Referral;
-import com.kenzie.marketing.referral.service.dao.ReferralDao;
-import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
 
-public class ReferralTask implements Callable<List<LeaderboardEntry>> {
+/**
+ * Loads the direct referrals of a batch of customers in the referral tree. The leaderboard submits one task per batch
+ * of a level, so the work of a large tree is spread over the whole worker pool while each batch is read in one
+ * round trip.
+ *
+ * Each node's referral count goes straight into the shared collector as soon as the task completes, and only the
+ * children are handed back so the next level can be expanded.
+ */
+public class ReferralTask implements Callable<List<Referral>> {
 
-    private ReferralDao referralDao;
     private ReferralService referralService;
-    private ReferralRecord root;
+    private LeaderboardCollector collector;
+    private List<String> customerIds;
 
-    public ReferralTask(ReferralDao refDao, ReferralService refServ, ReferralRecord root) {
-        this.referralDao = refDao;
+    public ReferralTask(ReferralService refServ, LeaderboardCollector collector, List<String> customerIds) {
         this.referralService = refServ;
-        this.root = root;
+        this.collector = collector;
+        this.customerIds = customerIds;
     }
 
     @Override
-    public List<LeaderboardEntry> call() throws Exception {
-            Stack<Referral> rootsStack = new Stack<>();
-            List<LeaderboardEntry> referrals1 = new ArrayList<>();
-            Referral rootReferral = new Referral();
-            rootReferral.setCustomerId(root.getCustomerId());
-            Referral currentNode = rootReferral;
-            rootsStack.push(rootReferral);
-
-            while(!rootsStack.isEmpty()) {
-                currentNode = rootsStack.pop();
-                List<Referral> children = referralService.getDirectReferrals(currentNode.getCustomerId());
-
-                //check for max
-                LeaderboardEntry tempMax = new LeaderboardEntry();
-                tempMax.setCustomerId(currentNode.getCustomerId());
-                tempMax.setNumReferrals(children.size());
-                referrals1.add(tempMax);
-
-                if(children != null) {
-                    rootsStack.addAll(children);
-                }
-            }
-            return referrals1.stream()
-                    .sorted(Comparator.comparingInt(LeaderboardEntry::getNumReferrals).reversed())
-                    .limit(5)
-                    .collect(Collectors.toList());
+    public List<Referral> call() throws Exception {
+        Map<String, List<Referral>> referrals = referralService.getDirectReferrals(customerIds);
+
+        List<Referral> children = new ArrayList<>();
+        for (String customerId : customerIds) {
+            List<Referral> customerChildren = referrals.get(customerId);
+            collector.offer(new LeaderboardEntry(customerChildren.size(), customerId));
+            children.addAll(customerChildren);
+        }
+        return children;
     }
 }
@@ -0,0 +1,169 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores referral lists in a compact binary format instead of JSON.
+ *
+ * Every value starts with a version byte, followed by the record count and then each record as length prefixed
+ * ids, an epoch millis timestamp with its zone, and the referral counts. A bit mask in front of each record marks
+ * which of the optional fields are present. Values bigger than the compression threshold are gzipped, which gets
+ * its own version byte.
+ *
+ * Values written by the JSON codec start with '[', so they are still read while a deployment rolls over.
+ */
+public class BinaryReferralListCodec implements ReferralListCodec {
+
+    static final byte VERSION_BINARY = 1;
+    static final byte VERSION_BINARY_GZIP = 2;
+    private static final byte LEGACY_JSON_START = '[';
+
+    private static final int HAS_REFERRER_ID = 1;
+    private static final int HAS_DATE_REFERRED = 1 << 1;
+    private static final int HAS_FIRST_LEVEL_REFERRALS = 1 << 2;
+    private static final int HAS_SECOND_LEVEL_REFERRALS = 1 << 3;
+    private static final int HAS_THIRD_LEVEL_REFERRALS = 1 << 4;
+
+    private final int compressionThreshold;
+    private final JsonReferralListCodec legacyCodec = new JsonReferralListCodec();
+
+    /**
+     * @param compressionThreshold the encoded size in bytes above which values are gzipped
+     */
+    public BinaryReferralListCodec(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] encode(List<ReferralRecord> records) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(records.size());
+            for (ReferralRecord record : records) {
+                writeRecord(out, record);
+            }
+            out.flush();
+
+            ByteArrayOutputStream value = new ByteArrayOutputStream(body.size() + 1);
+            if (body.size() > compressionThreshold) {
+                value.write(VERSION_BINARY_GZIP);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(value)) {
+                    body.writeTo(gzip);
+                }
+            } else {
+                value.write(VERSION_BINARY);
+                body.writeTo(value);
+            }
+            return value.toByteArray();
+        } catch (IOException e) {
+            // Only in memory streams are used, so this can't happen
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<ReferralRecord> decode(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Cached referral list is empty");
+        }
+        if (bytes[0] == LEGACY_JSON_START) {
+            return legacyCodec.decode(bytes);
+        }
+
+        InputStream body = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        try {
+            if (bytes[0] == VERSION_BINARY_GZIP) {
+                body = new GZIPInputStream(body);
+            } else if (bytes[0] != VERSION_BINARY) {
+                throw new IllegalArgumentException("Unknown cached referral list version " + bytes[0]);
+            }
+
+            DataInputStream in = new DataInputStream(body);
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IllegalArgumentException("Cached referral list has a negative record count " + count);
+            }
+            // A corrupt count must not allocate more than the value could hold, the read fails at its end instead
+            List<ReferralRecord> records = new ArrayList<>(Math.min(count, bytes.length));
+            for (int i = 0; i < count; i++) {
+                records.add(readRecord(in));
+            }
+            // Reading to the end also checks the gzip trailer, so a damaged checksum or length isn't missed
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("Cached referral list has trailing data");
+            }
+            return records;
+        } catch (IOException | DateTimeException e) {
+            throw new IllegalArgumentException("Cached referral list is corrupt", e);
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, ReferralRecord record) throws IOException {
+        int fields = 0;
+        fields |= record.getReferrerId() != null ? HAS_REFERRER_ID : 0;
+        fields |= record.getDateReferred() != null ? HAS_DATE_REFERRED : 0;
+        fields |= record.getNumFirstLevelReferrals() != null ? HAS_FIRST_LEVEL_REFERRALS : 0;
+        fields |= record.getNumSecondLevelReferrals() != null ? HAS_SECOND_LEVEL_REFERRALS : 0;
+        fields |= record.getNumThirdLevelReferrals() != null ? HAS_THIRD_LEVEL_REFERRALS : 0;
+
+        out.writeByte(fields);
+        out.writeUTF(record.getCustomerId());
+        if (record.getReferrerId() != null) {
+            out.writeUTF(record.getReferrerId());
+        }
+        if (record.getDateReferred() != null) {
+            out.writeLong(record.getDateReferred().toInstant().toEpochMilli());
+            out.writeUTF(record.getDateReferred().getZone().getId());
+        }
+        if (record.getNumFirstLevelReferrals() != null) {
+            out.writeInt(record.getNumFirstLevelReferrals());
+        }
+        if (record.getNumSecondLevelReferrals() != null) {
+            out.writeInt(record.getNumSecondLevelReferrals());
+        }
+        if (record.getNumThirdLevelReferrals() != null) {
+            out.writeInt(record.getNumThirdLevelReferrals());
+        }
+    }
+
+    private ReferralRecord readRecord(DataInputStream in) throws IOException {
+        int fields = in.readUnsignedByte();
+
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(in.readUTF());
+        if ((fields & HAS_REFERRER_ID) != 0) {
+            record.setReferrerId(in.readUTF());
+        }
+        if ((fields & HAS_DATE_REFERRED) != 0) {
+            Instant dateReferred = Instant.ofEpochMilli(in.readLong());
+            record.setDateReferred(ZonedDateTime.ofInstant(dateReferred, ZoneId.of(in.readUTF())));
+        }
+        if ((fields & HAS_FIRST_LEVEL_REFERRALS) != 0) {
+            record.setNumFirstLevelReferrals(in.readInt());
+        }
+        if ((fields & HAS_SECOND_LEVEL_REFERRALS) != 0) {
+            record.setNumSecondLevelReferrals(in.readInt());
+        }
+        if ((fields & HAS_THIRD_LEVEL_REFERRALS) != 0) {
+            record.setNumThirdLevelReferrals(in.readInt());
+        }
+        return record;
+    }
+}
@@ -1,69 +1,180 @@
 package com.kenzie.marketing.referral.service.caching;
 
-import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
-
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.util.SafeEncoder;
 
 import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class CacheClient {
 
-    public CacheClient() {}
+    // Only bump a score when the sorted set already exists, so that a write never creates a partial index
+    private static final String INCREMENT_IF_PRESENT_SCRIPT =
+            "if redis.call('EXISTS', KEYS[1]) == 1 then " +
+            "return redis.call('ZINCRBY', KEYS[1], ARGV[1], ARGV[2]) " +
+            "end " +
+            "return false";
+
+    private final JedisPool pool;
 
-    // Put your Cache Client Here
+    @Inject
+    public CacheClient(JedisPool pool) {
+        this.pool = pool;
+    }
 
-    // Since Jedis is being used multithreaded, you MUST get a new Jedis instances and close it inside every method.
+    // Since Jedis is being used multithreaded, every method borrows its own Jedis instance from the pool.
     // Do NOT use a single instance across multiple of these methods
 
     // Use Jedis in each method by doing the following:
-    // Jedis cache = DaggerServiceComponent.create().provideJedis();
-    // ... use the cache
-    // cache.close();
+    // try (Jedis cache = pool.getResource()) {
+    //     ... use the cache
+    // }
+    // Closing the instance returns the connection to the pool.
 
     // Remember to check for null keys!
 
     public void setValue(String key, int seconds, String value) {
-        // Check for non-null key
-        // Set the value in the cache
-        if (key == null) {
-            throw new IllegalArgumentException();
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            cache.setex(key, seconds, value);
         }
-        Jedis cache = DaggerServiceComponent.create().provideJedis();
-
-        cache.setex(key, seconds, value);
-
-        cache.close();
     }
 
     public Optional<String> getValue(String key) {
-        // Check for non-null key
-        // Retrieves the Optional values from the cache
-        if (key == null) {
-            throw new IllegalArgumentException();
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            return Optional.ofNullable(cache.get(key));
         }
-        Jedis cache = DaggerServiceComponent.create().provideJedis();
-        Optional<String> valueReturn = Optional.ofNullable(cache.get(key));
-        cache.close();
-            return valueReturn;
     }
 
     public void invalidate(String key) {
-        // Check for non-null key
-        // Delete the key
-        // Might be issue here
-        if (key == null) {
-            throw new IllegalArgumentException();
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            cache.del(key);
         }
-        Jedis cache = DaggerServiceComponent.create().provideJedis();
+    }
 
-            cache.del(key);
-            cache.close();
+    public void setValue(String key, int seconds, byte[] value) {
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            cache.setex(SafeEncoder.encode(key), seconds, value);
+        }
     }
 
-//    private void checkNonNullKey(String key) {
-//        // Ensure the key isn't null
-//        // What should you do if the key *is* null?
-//    }
+    public Optional<byte[]> getBinaryValue(String key) {
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            return Optional.ofNullable(cache.get(SafeEncoder.encode(key)));
+        }
+    }
+
+    /**
+     * Looks up many keys in one round trip with MGET.
+     * @param keys the keys to look up
+     * @return the values of the keys that are in the cache, keys that are missing are left out
+     */
+    public Map<String, byte[]> getBinaryValues(List<String> keys) {
+        keys.forEach(this::checkNonNullKey);
+        Map<String, byte[]> values = new HashMap<>();
+        if (keys.isEmpty()) {
+            return values;
+        }
+        try (Jedis cache = pool.getResource()) {
+            List<byte[]> cachedValues = cache.mget(keys.stream().map(SafeEncoder::encode).toArray(byte[][]::new));
+            for (int i = 0; i < keys.size(); i++) {
+                if (cachedValues.get(i) != null) {
+                    values.put(keys.get(i), cachedValues.get(i));
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sets many values with the same time to live, pipelining the SETEX commands into one round trip.
+     * @param seconds the time to live of every value
+     * @param values the values to set, by key
+     */
+    public void setBinaryValues(int seconds, Map<String, byte[]> values) {
+        values.keySet().forEach(this::checkNonNullKey);
+        if (values.isEmpty()) {
+            return;
+        }
+        try (Jedis cache = pool.getResource()) {
+            Pipeline pipeline = cache.pipelined();
+            for (Map.Entry<String, byte[]> value : values.entrySet()) {
+                pipeline.setex(SafeEncoder.encode(value.getKey()), seconds, value.getValue());
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Replaces the sorted set stored at key with the given member scores and sets its time to live.
+     * The delete, add and expire are sent as one transaction so readers never see a half built set.
+     * @param key the key of the sorted set
+     * @param seconds the time to live of the sorted set
+     * @param scores the score of every member in the set
+     */
+    public void setSortedSet(String key, int seconds, Map<String, Double> scores) {
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            Transaction transaction = cache.multi();
+            transaction.del(key);
+            if (!scores.isEmpty()) {
+                transaction.zadd(key, scores);
+                transaction.expire(key, seconds);
+            }
+            transaction.exec();
+        }
+    }
+
+    /**
+     * Increments the score of a member of the sorted set stored at key, but only if that set already exists.
+     * @param key the key of the sorted set
+     * @param member the member whose score is incremented
+     * @param increment the amount to add to the score
+     * @return true if the score was incremented, false if the set does not exist
+     */
+    public boolean incrementScoreIfPresent(String key, String member, double increment) {
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            return cache.eval(INCREMENT_IF_PRESENT_SCRIPT,
+                    Collections.singletonList(key),
+                    Arrays.asList(String.valueOf(increment), member)) != null;
+        }
+    }
+
+    /**
+     * Returns the highest scoring members of the sorted set stored at key, highest score first.
+     * @param key the key of the sorted set
+     * @param count the maximum number of members to return
+     * @return the members mapped to their scores in descending score order, empty if the set does not exist
+     */
+    public Map<String, Double> getTopScores(String key, int count) {
+        checkNonNullKey(key);
+        try (Jedis cache = pool.getResource()) {
+            Map<String, Double> topScores = new LinkedHashMap<>();
+            for (Tuple tuple : cache.zrevrangeWithScores(key, 0, count - 1)) {
+                topScores.put(tuple.getElement(), tuple.getScore());
+            }
+            return topScores;
+        }
+    }
+
+    private void checkNonNullKey(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException();
+        }
+    }
 }
@@ -1,54 +1,59 @@
 package com.kenzie.marketing.referral.service.caching;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.TypeAdapter;
-import com.google.gson.reflect.TypeToken;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonWriter;
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.service.dao.NonCachingReferralDao;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
+import com.github.benmanes.caffeine.cache.Cache;
+
 import javax.inject.Inject;
-import java.io.IOException;
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 
 public class CachingReferralDao implements ReferralDao {
 
     private static final int REFERRAL_READ_TTL = 60 * 60;
     private static final String REFERRAL_KEY = "ReferralKey::%s";
+    // Rebuilt from the table once a day so any missed increments can't drift forever
+    private static final int LEADERBOARD_INDEX_TTL = 24 * 60 * 60;
+    private static final String LEADERBOARD_INDEX_KEY = "ReferralCountIndex";
+    // Holds the number of referrers the index was built with, since Redis drops a sorted set that has no members
+    private static final String LEADERBOARD_INDEX_BUILT_KEY = "ReferralCountIndexBuilt";
     private final CacheClient cacheClient;
     private final NonCachingReferralDao referralDao;
+    private final ReferralListCodec codec;
+    // Referral lists this container read recently, so repeated reads during a tree walk never leave the JVM
+    private final Cache<String, List<ReferralRecord>> nearCache;
+    private final ConcurrentMap<String, CompletableFuture<List<ReferralRecord>>> inFlightLoads =
+            new ConcurrentHashMap<>();
 
     @Inject
-    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao) {
+    public CachingReferralDao(CacheClient cacheClient, NonCachingReferralDao referralDao, ReferralListCodec codec,
+                              Cache<String, List<ReferralRecord>> nearCache) {
         this.cacheClient = cacheClient;
         this.referralDao = referralDao;
+        this.codec = codec;
+        this.nearCache = nearCache;
     }
 
-    // Create the Gson object with instructions for ZonedDateTime
-    GsonBuilder builder = new GsonBuilder().registerTypeAdapter(
-            ZonedDateTime.class,
-            new TypeAdapter<ZonedDateTime>() {
-                @Override
-                public void write(JsonWriter out, ZonedDateTime value) throws IOException {
-                    out.value(value.toString());
-                }
-                @Override
-                public ZonedDateTime read(JsonReader in) throws IOException {
-                    return ZonedDateTime.parse(in.nextString());
-                }
-            }
-    ).enableComplexMapKeySerialization();
-    // Store this in your class
-    Gson gson = builder.create();
-
-    // Converting out of the cache
-    private List<ReferralRecord> fromJson(String json) {
-        return gson.fromJson(json, new TypeToken<ArrayList<ReferralRecord>>() { }.getType());
+    // Converting out of the cache, a value that can't be read is treated as a miss
+    private Optional<List<ReferralRecord>> decode(byte[] cachedValue) {
+        try {
+            return Optional.of(codec.decode(cachedValue));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
     }
 
     // Setting value
@@ -57,7 +62,7 @@ public class CachingReferralDao implements ReferralDao {
                     /* your implementation for cache key */
                     String.format(REFERRAL_KEY, rID),
                     REFERRAL_READ_TTL,
-                    gson.toJson(records)
+                    codec.encode(records)
             );
     }
 
@@ -68,25 +73,160 @@ public class CachingReferralDao implements ReferralDao {
 
             cacheClient.invalidate(String.format(REFERRAL_KEY, referral.getReferrerId()));
             referralDao.addReferral(referral);
+            // Other containers keep their copy until the near cache TTL runs out
+            if (referral.getReferrerId() != null) {
+                nearCache.invalidate(referral.getReferrerId());
+            }
+
+            // Keep the referral count index up to date, an index that was built empty is rebuilt on the next read
+            if (referral.getReferrerId() != null && !referral.getReferrerId().isEmpty()
+                    && !cacheClient.incrementScoreIfPresent(LEADERBOARD_INDEX_KEY, referral.getReferrerId(), 1)) {
+                cacheClient.invalidate(LEADERBOARD_INDEX_BUILT_KEY);
+            }
 
             return referral;
     }
 
     @Override
     public List<ReferralRecord> findByReferrerId(String referrerId) {
-        // Look up data in cache
-        // Convert between JSON
-        // If the data doesn't exist in the cache,
-        // Get the data from the data source
-        // Add data to the cache, convert between JSON
+        List<ReferralRecord> nearCachedReferrals = nearCache.getIfPresent(referrerId);
+        if (nearCachedReferrals != null) {
+            return nearCachedReferrals;
+        }
+
+        // Look up data in cache, a hit costs a single GET
+        Optional<List<ReferralRecord>> cachedReferrals = cacheClient
+                .getBinaryValue(String.format(REFERRAL_KEY, referrerId))
+                .flatMap(this::decode);
+        return addToNearCache(referrerId, cachedReferrals.orElseGet(() -> loadReferrals(referrerId)));
+    }
+
+    @Override
+    public Map<String, List<ReferralRecord>> findByReferrerIds(Collection<String> referrerIds) {
+        Map<String, List<ReferralRecord>> referrals = new HashMap<>(nearCache.getAllPresent(referrerIds));
+
+        List<String> uniqueReferrerIds = referrerIds.stream()
+                .filter(referrerId -> !referrals.containsKey(referrerId))
+                .distinct()
+                .collect(Collectors.toList());
+        if (uniqueReferrerIds.isEmpty()) {
+            return referrals;
+        }
+        List<String> keys = uniqueReferrerIds.stream()
+                .map(referrerId -> String.format(REFERRAL_KEY, referrerId))
+                .collect(Collectors.toList());
+
+        // Every key of the batch is read with a single MGET
+        Map<String, byte[]> cachedReferrals = cacheClient.getBinaryValues(keys);
+
+        List<String> misses = new ArrayList<>();
+        for (int i = 0; i < uniqueReferrerIds.size(); i++) {
+            String referrerId = uniqueReferrerIds.get(i);
+            Optional<List<ReferralRecord>> cachedRecords = Optional.ofNullable(cachedReferrals.get(keys.get(i)))
+                    .flatMap(this::decode);
+            if (cachedRecords.isPresent()) {
+                referrals.put(referrerId, addToNearCache(referrerId, cachedRecords.get()));
+            } else {
+                misses.add(referrerId);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            referrals.putAll(loadReferrals(misses));
+        }
+        return referrals;
+    }
+
+    // The list is shared by every reader in this container, so it is made read only
+    private List<ReferralRecord> addToNearCache(String referrerId, List<ReferralRecord> records) {
+        List<ReferralRecord> sharedRecords = Collections.unmodifiableList(records);
+        nearCache.put(referrerId, sharedRecords);
+        return sharedRecords;
+    }
+
+    /**
+     * Loads the referrals of a referrer from the data source and adds them to the cache. Concurrent misses for the
+     * same referrer share a single load instead of each querying DynamoDB.
+     */
+    private List<ReferralRecord> loadReferrals(String referrerId) {
+        CompletableFuture<List<ReferralRecord>> load = new CompletableFuture<>();
+        CompletableFuture<List<ReferralRecord>> inFlightLoad = inFlightLoads.putIfAbsent(referrerId, load);
+        if (inFlightLoad != null) {
+            return join(inFlightLoad);
+        }
+
+        try {
+            // Copy the lazily paginated query result, so it is fully read before it is shared between threads
+            List<ReferralRecord> referralRecordList = new ArrayList<>(referralDao.findByReferrerId(referrerId));
+            addToCache(referralRecordList, referrerId);
+            load.complete(referralRecordList);
+            return referralRecordList;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(referrerId, load);
+        }
+    }
+
+    /**
+     * Loads the referrals of many referrers from the data source with one batched read, and adds them to the cache
+     * with one pipelined write. Referrers that another thread is already loading share that load instead.
+     */
+    private Map<String, List<ReferralRecord>> loadReferrals(List<String> referrerIds) {
+        Map<String, CompletableFuture<List<ReferralRecord>>> loads = new HashMap<>();
+        Map<String, CompletableFuture<List<ReferralRecord>>> sharedLoads = new HashMap<>();
+        for (String referrerId : referrerIds) {
+            CompletableFuture<List<ReferralRecord>> load = new CompletableFuture<>();
+            CompletableFuture<List<ReferralRecord>> inFlightLoad = inFlightLoads.putIfAbsent(referrerId, load);
+            if (inFlightLoad == null) {
+                loads.put(referrerId, load);
+            } else {
+                sharedLoads.put(referrerId, inFlightLoad);
+            }
+        }
+
+        Map<String, List<ReferralRecord>> referrals = new HashMap<>();
+        if (!loads.isEmpty()) {
+            try {
+                Map<String, List<ReferralRecord>> loadedReferrals = referralDao.findByReferrerIds(loads.keySet());
+                Map<String, byte[]> newCacheValues = new HashMap<>();
+                for (String referrerId : loads.keySet()) {
+                    List<ReferralRecord> records = loadedReferrals.getOrDefault(referrerId, new ArrayList<>());
+                    referrals.put(referrerId, records);
+                    newCacheValues.put(String.format(REFERRAL_KEY, referrerId), codec.encode(records));
+                }
+                // Write every miss back with one pipelined round trip
+                cacheClient.setBinaryValues(REFERRAL_READ_TTL, newCacheValues);
+                for (Map.Entry<String, CompletableFuture<List<ReferralRecord>>> load : loads.entrySet()) {
+                    List<ReferralRecord> records = addToNearCache(load.getKey(), referrals.get(load.getKey()));
+                    referrals.put(load.getKey(), records);
+                    load.getValue().complete(records);
+                }
+            } catch (RuntimeException e) {
+                loads.values().forEach(load -> load.completeExceptionally(e));
+                throw e;
+            } finally {
+                loads.forEach(inFlightLoads::remove);
+            }
+        }
 
-        List<ReferralRecord> referralRecordList = new ArrayList<>();
+        // Only waited on once this thread's own loads are complete, so two batches can never wait on each other
+        for (Map.Entry<String, CompletableFuture<List<ReferralRecord>>> sharedLoad : sharedLoads.entrySet()) {
+            referrals.put(sharedLoad.getKey(), addToNearCache(sharedLoad.getKey(), join(sharedLoad.getValue())));
+        }
+        return referrals;
+    }
 
-        if (cacheClient.getValue(String.format(REFERRAL_KEY, referrerId)).isEmpty()) {
-            addToCache(referralDao.findByReferrerId(referrerId), referrerId);
-            return referralDao.findByReferrerId(referrerId);
+    private static List<ReferralRecord> join(CompletableFuture<List<ReferralRecord>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
-        return fromJson(cacheClient.getValue(String.format(REFERRAL_KEY, referrerId)).get());
     }
 
     @Override
@@ -94,4 +234,59 @@ public class CachingReferralDao implements ReferralDao {
         // Look up customer from the data source
         return referralDao.findUsersWithoutReferrerId();
     }
+
+    @Override
+    public ReferralRecord findByCustomerId(String customerId) {
+        return referralDao.findByCustomerId(customerId);
+    }
+
+    @Override
+    public Map<String, ReferralRecord> findByCustomerIds(Collection<String> customerIds) {
+        return referralDao.findByCustomerIds(customerIds);
+    }
+
+    @Override
+    public void initializeReferralCounts(ReferralRecord referralCounts) {
+        referralDao.initializeReferralCounts(referralCounts);
+    }
+
+    @Override
+    public Optional<List<LeaderboardEntry>> findTopReferrers(int limit) {
+        Map<String, Double> topScores = cacheClient.getTopScores(LEADERBOARD_INDEX_KEY, limit);
+
+        if (topScores.isEmpty()) {
+            if (isEmptyIndexBuilt()) {
+                // Nobody has been referred yet, so there is nothing to rebuild or walk
+                return Optional.of(new ArrayList<>());
+            }
+            // The index expired or was evicted, rebuild it with a single scan of the table
+            rebuildReferralCountIndex();
+            topScores = cacheClient.getTopScores(LEADERBOARD_INDEX_KEY, limit);
+        }
+        if (topScores.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        for (Map.Entry<String, Double> score : topScores.entrySet()) {
+            entries.add(new LeaderboardEntry(score.getValue().intValue(), score.getKey()));
+        }
+        return Optional.of(entries);
+    }
+
+    private void rebuildReferralCountIndex() {
+        Map<String, Double> referralCounts = new HashMap<>();
+        for (ReferralRecord record : referralDao.findReferrerIdsOfAllReferrals()) {
+            referralCounts.merge(record.getReferrerId(), 1.0, Double::sum);
+        }
+        cacheClient.setSortedSet(LEADERBOARD_INDEX_KEY, LEADERBOARD_INDEX_TTL, referralCounts);
+        cacheClient.setValue(LEADERBOARD_INDEX_BUILT_KEY, LEADERBOARD_INDEX_TTL, String.valueOf(referralCounts.size()));
+    }
+
+    // A missing sorted set only means an empty leaderboard when the index was built without any referrers
+    private boolean isEmptyIndexBuilt() {
+        return cacheClient.getValue(LEADERBOARD_INDEX_BUILT_KEY)
+                .map("0"::equals)
+                .orElse(false);
+    }
 }
@@ -0,0 +1,35 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores referral lists as Gson JSON, the format the cache used before the binary codec.
+ */
+public class JsonReferralListCodec implements ReferralListCodec {
+
+    private final Gson gson = GsonProvider.getGson();
+
+    @Override
+    public byte[] encode(List<ReferralRecord> records) {
+        return gson.toJson(records).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public List<ReferralRecord> decode(byte[] bytes) {
+        try {
+            return gson.fromJson(new String(bytes, StandardCharsets.UTF_8),
+                    new TypeToken<ArrayList<ReferralRecord>>() { }.getType());
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Cached referral list is not valid JSON", e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import java.util.List;
+
+/**
+ * Converts the referral lists stored in the cache to and from bytes.
+ */
+public interface ReferralListCodec {
+
+    byte[] encode(List<ReferralRecord> records);
+
+    /**
+     * Decodes a cached referral list.
+     * @param bytes the cached value
+     * @return the referral list
+     * @throws IllegalArgumentException if the value isn't in a format this codec can read
+     */
+    List<ReferralRecord> decode(byte[] bytes);
+}
@@ -0,0 +1,21 @@
+package com.kenzie.marketing.referral.service.converter;
+
+import com.kenzie.marketing.referral.model.BatchReferralRequest;
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
+
+public class JsonStringToBatchReferralRequestConverter {
+
+    public BatchReferralRequest convert(String body) {
+        BatchReferralRequest batchRequest;
+        try {
+            batchRequest = GsonProvider.getGson().fromJson(body, BatchReferralRequest.class);
+        } catch (Exception e) {
+            throw new InvalidDataException("Batch request could not be deserialized");
+        }
+        if (batchRequest == null || batchRequest.getCustomerIds() == null) {
+            throw new InvalidDataException("Batch request must contain a list of Customer IDs");
+        }
+        return batchRequest;
+    }
+}
@@ -1,11 +1,13 @@
 package com.kenzie.marketing.referral.service.converter;
 
+import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.Referral;
 import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.ReferralResponse;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 
 public class ReferralConverter {
 
@@ -15,10 +17,23 @@ public class ReferralConverter {
         ReferralRecord record = new ReferralRecord();
         record.setCustomerId(referral.getCustomerId());
         record.setReferrerId(referral.getReferrerId());
-        record.setDateReferred(ZonedDateTime.now());
+        // Millisecond precision is all the cache keeps, so cached and stored records read back the same
+        record.setDateReferred(ZonedDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+        // A new customer hasn't referred anyone yet
+        record.setNumFirstLevelReferrals(0);
+        record.setNumSecondLevelReferrals(0);
+        record.setNumThirdLevelReferrals(0);
         return record;
     }
 
+    public static CustomerReferrals fromRecordToCustomerReferrals(ReferralRecord record) {
+        CustomerReferrals referrals = new CustomerReferrals();
+        referrals.setNumFirstLevelReferrals(record.getNumFirstLevelReferrals());
+        referrals.setNumSecondLevelReferrals(record.getNumSecondLevelReferrals());
+        referrals.setNumThirdLevelReferrals(record.getNumThirdLevelReferrals());
+        return referrals;
+    }
+
     public static ReferralResponse fromRecordToResponse(ReferralRecord record) {
         ReferralResponse referral = new ReferralResponse();
         referral.setReferrerId(record.getReferrerId());
@@ -1,41 +1,66 @@
 package com.kenzie.marketing.referral.service.dao;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
 import com.google.common.collect.ImmutableMap;
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class NonCachingReferralDao implements ReferralDao {
+    private static final String REFERRAL_TABLE = "Referral";
+    // The count bumped on the referrer, the referrer's referrer, and one step further up
+    private static final String[] REFERRAL_COUNT_ATTRIBUTES = {
+        "NumFirstLevelReferrals", "NumSecondLevelReferrals", "NumThirdLevelReferrals"
+    };
+    private static final String PENDING_REFERRALS_ATTRIBUTE = "PendingReferrals";
+    private static final String REFERRAL_VERSION_ATTRIBUTE = "ReferralVersion";
+
     private DynamoDBMapper mapper;
+    private AmazonDynamoDB dynamoDb;
 
     /**
      * Allows access to and manipulation of Match objects from the data store.
      * @param mapper Access to DynamoDB
+     * @param dynamoDb Low level access to DynamoDB, for atomic counter updates
      */
-//    public ReferralDao(DynamoDBMapper mapper) {
-//        this.mapper = mapper;
-//    }
-
-    public NonCachingReferralDao(DynamoDBMapper mapper) {
+    public NonCachingReferralDao(DynamoDBMapper mapper, AmazonDynamoDB dynamoDb) {
         this.mapper = mapper;
+        this.dynamoDb = dynamoDb;
     }
 
     public ReferralRecord addReferral(ReferralRecord referral) {
+        // The ancestors are marked before the referral can be seen, so a count backfill walking their trees
+        // meanwhile is rejected instead of storing counts that may or may not include it
+        List<Map<String, AttributeValue>> ancestors = startReferral(referral.getReferrerId());
+        boolean added = false;
         try {
             mapper.save(referral, new DynamoDBSaveExpression()
                     .withExpected(ImmutableMap.of(
                             "CustomerId",
                             new ExpectedAttributeValue().withExists(false)
                     )));
+            added = true;
         } catch (ConditionalCheckFailedException e) {
             throw new InvalidDataException("Customer has already been referred");
+        } finally {
+            finishReferral(ancestors, added);
         }
 
         return referral;
@@ -53,10 +78,170 @@ public class NonCachingReferralDao implements ReferralDao {
         return mapper.query(ReferralRecord.class, queryExpression);
     }
 
+    public Map<String, List<ReferralRecord>> findByReferrerIds(Collection<String> referrerIds) {
+        // DynamoDB can't query many GSI partitions at once, callers get concurrency by looking up batches in parallel
+        Map<String, List<ReferralRecord>> referrals = new HashMap<>();
+        for (String referrerId : referrerIds) {
+            referrals.put(referrerId, new ArrayList<>(findByReferrerId(referrerId)));
+        }
+        return referrals;
+    }
+
     public List<ReferralRecord> findUsersWithoutReferrerId() {
         DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
                 .withFilterExpression("attribute_not_exists(ReferrerId)");
 
         return mapper.scan(ReferralRecord.class, scanExpression);
     }
+
+    /**
+     * Scans every referral that has a referrer, loading only the ReferrerId attribute.
+     * Used to rebuild the referral count index in one pass instead of querying each customer.
+     * @return every referral with a referrer, with only the referrerId populated
+     */
+    public List<ReferralRecord> findReferrerIdsOfAllReferrals() {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withFilterExpression("attribute_exists(ReferrerId)")
+                .withProjectionExpression("ReferrerId");
+
+        return mapper.scan(ReferralRecord.class, scanExpression);
+    }
+
+    public Optional<List<LeaderboardEntry>> findTopReferrers(int limit) {
+        // The table has no referral count index, callers have to walk the referral trees
+        return Optional.empty();
+    }
+
+    public ReferralRecord findByCustomerId(String customerId) {
+        return mapper.load(ReferralRecord.class, customerId);
+    }
+
+    public Map<String, ReferralRecord> findByCustomerIds(Collection<String> customerIds) {
+        List<ReferralRecord> keys = customerIds.stream()
+                .distinct()
+                .map(customerId -> {
+                    ReferralRecord key = new ReferralRecord();
+                    key.setCustomerId(customerId);
+                    return key;
+                })
+                .collect(Collectors.toList());
+
+        // batchLoad splits the keys into BatchGetItem calls of up to 100 and retries any unprocessed keys
+        Map<String, ReferralRecord> records = new HashMap<>();
+        for (List<Object> tableRecords : mapper.batchLoad(keys).values()) {
+            for (Object record : tableRecords) {
+                ReferralRecord referralRecord = (ReferralRecord) record;
+                records.put(referralRecord.getCustomerId(), referralRecord);
+            }
+        }
+        return records;
+    }
+
+    public void initializeReferralCounts(ReferralRecord referralCounts) {
+        Integer pendingReferrals = referralCounts.getPendingReferrals();
+        if (pendingReferrals != null && pendingReferrals > 0) {
+            // A referral under this customer was being added while the tree was walked, the walk may have missed it
+            return;
+        }
+
+        Map<String, String> names = new HashMap<>();
+        names.put("#first", REFERRAL_COUNT_ATTRIBUTES[0]);
+        names.put("#second", REFERRAL_COUNT_ATTRIBUTES[1]);
+        names.put("#third", REFERRAL_COUNT_ATTRIBUTES[2]);
+        names.put("#pending", PENDING_REFERRALS_ATTRIBUTE);
+        names.put("#version", REFERRAL_VERSION_ATTRIBUTE);
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":first", numberValue(referralCounts.getNumFirstLevelReferrals()));
+        values.put(":second", numberValue(referralCounts.getNumSecondLevelReferrals()));
+        values.put(":third", numberValue(referralCounts.getNumThirdLevelReferrals()));
+        values.put(":zero", numberValue(0));
+
+        // Nothing may have started or finished under the customer since its record was loaded before the walk
+        String versionCondition = "attribute_not_exists(#version)";
+        if (referralCounts.getReferralVersion() != null) {
+            versionCondition = "#version = :version";
+            values.put(":version", numberValue(referralCounts.getReferralVersion()));
+        }
+
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(REFERRAL_TABLE)
+                .withKey(ImmutableMap.of("CustomerId", new AttributeValue(referralCounts.getCustomerId())))
+                .withUpdateExpression("SET #first = :first, #second = :second, #third = :third")
+                .withConditionExpression("attribute_exists(CustomerId) AND attribute_not_exists(#first)"
+                        + " AND (attribute_not_exists(#pending) OR #pending = :zero) AND " + versionCondition)
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values);
+        try {
+            dynamoDb.updateItem(request);
+        } catch (ConditionalCheckFailedException e) {
+            // Another request already stored the counts, or a referral was added since the record was loaded
+        }
+    }
+
+    /**
+     * Marks a referral as pending on the referrer, the referrer's referrer, and one step further up.
+     * @param referrerId the referrer of the customer being added
+     * @return the attributes of each ancestor that exists after it was marked, nearest first
+     */
+    private List<Map<String, AttributeValue>> startReferral(String referrerId) {
+        List<Map<String, AttributeValue>> ancestors = new ArrayList<>();
+        String ancestorId = referrerId;
+        while (ancestors.size() < REFERRAL_COUNT_ATTRIBUTES.length && ancestorId != null && !ancestorId.isEmpty()) {
+            UpdateItemRequest request = new UpdateItemRequest()
+                    .withTableName(REFERRAL_TABLE)
+                    .withKey(ImmutableMap.of("CustomerId", new AttributeValue(ancestorId)))
+                    .withUpdateExpression("ADD #pending :one")
+                    .withConditionExpression("attribute_exists(CustomerId)")
+                    .withExpressionAttributeNames(ImmutableMap.of("#pending", PENDING_REFERRALS_ATTRIBUTE))
+                    .withExpressionAttributeValues(ImmutableMap.of(":one", numberValue(1)))
+                    .withReturnValues(ReturnValue.ALL_NEW);
+            Map<String, AttributeValue> ancestor;
+            try {
+                ancestor = dynamoDb.updateItem(request).getAttributes();
+            } catch (ConditionalCheckFailedException e) {
+                // The ancestor has no referral record, so there is nothing to count on it or above it
+                break;
+            }
+            ancestors.add(ancestor);
+            AttributeValue ancestorReferrerId = ancestor.get("ReferrerId");
+            ancestorId = ancestorReferrerId == null ? null : ancestorReferrerId.getS();
+        }
+        return ancestors;
+    }
+
+    /**
+     * Clears the pending mark of each ancestor and bumps its referral version, and counts the referral on the
+     * ancestors whose counts are materialized.  Counts that existed when an ancestor was marked take the increment;
+     * counts that didn't can't have been backfilled since, and are left to the next summary read to fill in.
+     * @param ancestors the ancestors as returned by startReferral
+     * @param added whether the referral was stored
+     */
+    private void finishReferral(List<Map<String, AttributeValue>> ancestors, boolean added) {
+        for (int level = 0; level < ancestors.size(); level++) {
+            Map<String, AttributeValue> ancestor = ancestors.get(level);
+            Map<String, String> names = new HashMap<>();
+            names.put("#pending", PENDING_REFERRALS_ATTRIBUTE);
+            names.put("#version", REFERRAL_VERSION_ATTRIBUTE);
+            Map<String, AttributeValue> values = new HashMap<>();
+            values.put(":one", numberValue(1));
+            values.put(":minusOne", numberValue(-1));
+
+            String updateExpression = "ADD #pending :minusOne, #version :one";
+            if (added && ancestor.containsKey(REFERRAL_COUNT_ATTRIBUTES[level])) {
+                updateExpression += ", #count :one";
+                names.put("#count", REFERRAL_COUNT_ATTRIBUTES[level]);
+            }
+
+            dynamoDb.updateItem(new UpdateItemRequest()
+                    .withTableName(REFERRAL_TABLE)
+                    .withKey(ImmutableMap.of("CustomerId", ancestor.get("CustomerId")))
+                    .withUpdateExpression(updateExpression)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values));
+        }
+    }
+
+    private static AttributeValue numberValue(int value) {
+        return new AttributeValue().withN(String.valueOf(value));
+    }
 }
@@ -1,11 +1,51 @@
 package com.kenzie.marketing.referral.service.dao;
 
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 public interface ReferralDao {
     ReferralRecord addReferral(ReferralRecord referral);
     List<ReferralRecord> findByReferrerId(String referrerId);
+
+    /**
+     * Looks up the direct referrals of many referrers at once.
+     * @param referrerIds the referrers to look up
+     * @return the referrals of every requested referrer, keyed by referrerId
+     */
+    Map<String, List<ReferralRecord>> findByReferrerIds(Collection<String> referrerIds);
     List<ReferralRecord> findUsersWithoutReferrerId();
-}
\ No newline at end of file
+
+    /**
+     * Loads the referral record of a single customer, including any materialized referral counts.
+     * @param customerId the customer to load
+     * @return the referral record, or null if the customer has never been added
+     */
+    ReferralRecord findByCustomerId(String customerId);
+
+    /**
+     * Loads the referral records of many customers at once.
+     * @param customerIds the customers to load
+     * @return the referral records that exist, keyed by customerId
+     */
+    Map<String, ReferralRecord> findByCustomerIds(Collection<String> customerIds);
+
+    /**
+     * Stores referral counts for a customer whose counts were never materialized. Counts that already exist are
+     * left alone, since addReferral keeps those up to date, and so are counts from a walk that raced with a referral
+     * added under the customer after its record was loaded; the next summary read walks again.
+     * @param referralCounts the customer's record as loaded before the walk, with the three counts set
+     */
+    void initializeReferralCounts(ReferralRecord referralCounts);
+
+    /**
+     * Looks up the customers with the most direct referrals from a maintained referral count index.
+     * @param limit the maximum number of entries to return
+     * @return the top referrers ordered by number of referrals, or empty if no index is available
+     */
+    Optional<List<LeaderboardEntry>> findTopReferrers(int limit);
+}
@@ -1,54 +1,132 @@
 package com.kenzie.marketing.referral.service.dependency;
 
+import com.kenzie.marketing.referral.service.caching.BinaryReferralListCodec;
 import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.caching.JsonReferralListCodec;
+import com.kenzie.marketing.referral.service.caching.ReferralListCodec;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.util.EnvironmentConfig;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import dagger.Module;
 import dagger.Provides;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Module
 public class CachingModule {
-    // DO NOT CHANGE ANYTHING IN THIS FILE!
     // This file is set up to automatically select the correct Jedis URL based upon your current
-    // deployment configuration.  If you change anything here you risk breaking the connection to Jedis.
+    // deployment configuration.  If you change the host selection you risk breaking the connection to Jedis.
+
+    static final Logger log = LogManager.getLogger();
+
+    private static final int REDIS_PORT = 6379;
 
     /**
-     * This method provides a JedisPool object used to connect to a Redis cache.
+     * This method provides the JedisPool shared by every cache operation, so a cache call borrows an open
+     * connection instead of opening a new socket.
+     *
+     * The pool can be tuned with REDIS_POOL_MAX_TOTAL, REDIS_POOL_MAX_IDLE, REDIS_POOL_MIN_IDLE,
+     * REDIS_POOL_MAX_WAIT_MS, REDIS_POOL_IDLE_EVICTION_MS and REDIS_TIMEOUT_MS.
      * @return A JedisPool object
      */
     @Provides
-    public static Jedis provideJedis() {
+    @Singleton
+    public static JedisPool provideJedisPool() {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(EnvironmentConfig.getInt("REDIS_POOL_MAX_TOTAL", 32));
+        poolConfig.setMaxIdle(EnvironmentConfig.getInt("REDIS_POOL_MAX_IDLE", 16));
+        poolConfig.setMinIdle(EnvironmentConfig.getInt("REDIS_POOL_MIN_IDLE", 0));
+        poolConfig.setMaxWaitMillis(EnvironmentConfig.getInt("REDIS_POOL_MAX_WAIT_MS", 2000));
+        // Close connections that have sat idle, so a thawed container doesn't keep using dead sockets
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setMinEvictableIdleTimeMillis(EnvironmentConfig.getInt("REDIS_POOL_IDLE_EVICTION_MS", 60000));
+        poolConfig.setTimeBetweenEvictionRunsMillis(30000);
+        int timeout = EnvironmentConfig.getInt("REDIS_TIMEOUT_MS", 20000);
+
         String redisUrl = System.getenv("JEDIS_URL");
         if (redisUrl != null && redisUrl.length() > 0) {
             // Connect to AWS
-            System.out.println("Providing redis " + redisUrl);
-            return new Jedis(redisUrl, 6379, 20000);
-        } else if ("true".equals(System.getenv("AWS_SAM_LOCAL"))) {
+            log.info("Providing redis {}", redisUrl);
+            return new JedisPool(poolConfig, redisUrl, REDIS_PORT, timeout);
+        } else if (isSamLocal()) {
             // Connect to local Docker redis
-            JedisPool pool = new JedisPool(new JedisPoolConfig(), "redis-stack", 6379, 20000);
-            try {
-                return pool.getResource();
-            } catch (Exception e) {
+            return new JedisPool(poolConfig, "redis-stack", REDIS_PORT, timeout);
+        } else {
+            // Run Locally
+            log.info("Providing local redis");
+            return new JedisPool(poolConfig, "localhost", REDIS_PORT, timeout);
+        }
+    }
+
+    /**
+     * This method borrows a Jedis connection from the pool.  The caller must close it to return it to the pool.
+     * @param pool the shared JedisPool
+     * @return A Jedis object
+     */
+    @Provides
+    public static Jedis provideJedis(JedisPool pool) {
+        try {
+            return pool.getResource();
+        } catch (Exception e) {
+            if (isSamLocal()) {
                 throw new IllegalStateException("Could not connect to the local redis container in docker.  " +
                         "Make sure that it is running and that you have configured the SAM CLI - Docker Network " +
-                        "property to contain kenzie-local inside of your run configuration.");
+                        "property to contain kenzie-local inside of your run configuration.", e);
             }
-        } else {
-            // Run Locally
-            System.out.println("Providing local redis");
-            return new JedisPool(new JedisPoolConfig(), "localhost", 6379, 20000).getResource();
+            throw e;
         }
     }
 
     @Provides
     @Singleton
     @Named("CacheClient")
-    public CacheClient provideCacheClient() {
-        return new CacheClient();
+    public CacheClient provideCacheClient(JedisPool pool) {
+        return new CacheClient(pool);
+    }
+
+    /**
+     * This method provides the codec used for cached referral lists.  REFERRAL_CACHE_CODEC=json keeps the old JSON
+     * format, which lets a deployment roll back to a version that can't read the binary format.
+     * Binary values above REFERRAL_CACHE_COMPRESSION_THRESHOLD bytes are gzipped.
+     * @return A ReferralListCodec object
+     */
+    @Provides
+    @Singleton
+    public static ReferralListCodec provideReferralListCodec() {
+        if ("json".equalsIgnoreCase(System.getenv("REFERRAL_CACHE_CODEC"))) {
+            return new JsonReferralListCodec();
+        }
+        return new BinaryReferralListCodec(EnvironmentConfig.getInt("REFERRAL_CACHE_COMPRESSION_THRESHOLD", 1024));
+    }
+
+    /**
+     * This method provides the in-process cache that sits in front of redis.  It holds at most
+     * REFERRAL_NEAR_CACHE_MAX_RECORDS referral records, and entries expire after REFERRAL_NEAR_CACHE_TTL_MS, which
+     * bounds how long a container can serve a list that another container has since changed.
+     * @return A Cache of referral lists by referrerId
+     */
+    @Provides
+    @Singleton
+    @Named("ReferralNearCache")
+    public static Cache<String, List<ReferralRecord>> provideReferralNearCache() {
+        return Caffeine.newBuilder()
+                .maximumWeight(EnvironmentConfig.getInt("REFERRAL_NEAR_CACHE_MAX_RECORDS", 50000))
+                .weigher((String referrerId, List<ReferralRecord> records) -> records.size() + 1)
+                .expireAfterWrite(EnvironmentConfig.getInt("REFERRAL_NEAR_CACHE_TTL_MS", 5000), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static boolean isSamLocal() {
+        return "true".equals(System.getenv("AWS_SAM_LOCAL"));
     }
 }
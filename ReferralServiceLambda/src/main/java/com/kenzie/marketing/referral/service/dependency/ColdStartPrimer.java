@@ -0,0 +1,97 @@
+package com.kenzie.marketing.referral.service.dependency;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.crac.Context;
+import org.crac.Resource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Does the work a cold container would otherwise do on its first request: building the DynamoDBMapper table model,
+ * opening a redis connection, and resolving credentials and region with a priming read from DynamoDB.
+ *
+ * Priming runs during the init phase when COLD_START_PRIMING=true.  The primer is also a CRaC resource, so with a
+ * checkpoint/restore runtime such as SnapStart the work is done before the snapshot is taken, and connections
+ * that won't survive the restore are closed.
+ */
+public class ColdStartPrimer implements Resource {
+
+    static final Logger log = LogManager.getLogger();
+
+    // Never a real customer, the lookup only exists to warm the DynamoDB client
+    private static final String PRIMING_CUSTOMER_ID = "cold-start-priming";
+
+    private final ServiceComponent serviceComponent;
+    private volatile boolean primed;
+
+    public ColdStartPrimer(ServiceComponent serviceComponent) {
+        this.serviceComponent = serviceComponent;
+    }
+
+    /**
+     * Warms the service dependencies.  A failing step is logged and skipped, priming never fails the container.
+     */
+    public void prime() {
+        long start = System.nanoTime();
+
+        try {
+            serviceComponent.provideDynamoDBMapper().getTableModel(ReferralRecord.class);
+        } catch (RuntimeException e) {
+            log.warn("Could not build the ReferralRecord table model while priming", e);
+        }
+
+        try (Jedis cache = serviceComponent.provideJedisPool().getResource()) {
+            cache.ping();
+        } catch (RuntimeException e) {
+            log.warn("Could not open a redis connection while priming", e);
+        }
+
+        try {
+            serviceComponent.provideReferralDao().findByCustomerId(PRIMING_CUSTOMER_ID);
+        } catch (RuntimeException e) {
+            log.warn("Could not make the priming call to DynamoDB", e);
+        }
+
+        primed = true;
+        log.info("Primed the referral service in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        if (!primed) {
+            prime();
+        }
+        closeIdleRedisConnections();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        // Closed redis connections reconnect on their next command, and the DynamoDB client validates pooled
+        // connections that have been idle, so nothing has to be reopened here
+        log.info("Restored the referral service from a checkpoint");
+    }
+
+    // Sockets in a snapshot are dead after the restore, so disconnect them while they are still idle
+    private void closeIdleRedisConnections() {
+        JedisPool pool = serviceComponent.provideJedisPool();
+        List<Jedis> idleConnections = new ArrayList<>();
+        try {
+            for (int i = pool.getNumIdle(); i > 0; i--) {
+                idleConnections.add(pool.getResource());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not borrow the idle redis connections before a checkpoint", e);
+        }
+        for (Jedis connection : idleConnections) {
+            connection.disconnect();
+            connection.close();
+        }
+    }
+}
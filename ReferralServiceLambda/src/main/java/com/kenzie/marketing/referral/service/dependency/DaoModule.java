@@ -3,17 +3,22 @@ package com.kenzie.marketing.referral.service.dependency;
 
 import com.kenzie.marketing.referral.service.caching.CacheClient;
 import com.kenzie.marketing.referral.service.caching.CachingReferralDao;
+import com.kenzie.marketing.referral.service.caching.ReferralListCodec;
 import com.kenzie.marketing.referral.service.dao.NonCachingReferralDao;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
 import com.kenzie.marketing.referral.service.util.DynamoDbClientProvider;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.github.benmanes.caffeine.cache.Cache;
 import dagger.Module;
 import dagger.Provides;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.List;
 
 /**
  * Provides DynamoDBMapper instance to DAO classes.
@@ -23,19 +28,28 @@ import javax.inject.Singleton;
 )
 public class DaoModule {
 
+    @Singleton
+    @Provides
+    @Named("AmazonDynamoDB")
+    public AmazonDynamoDB provideAmazonDynamoDB() {
+        return DynamoDbClientProvider.getDynamoDBClient();
+    }
+
     @Singleton
     @Provides
     @Named("DynamoDBMapper")
-    public DynamoDBMapper provideDynamoDBMapper() {
-        return new DynamoDBMapper(DynamoDbClientProvider.getDynamoDBClient());
+    @Inject
+    public DynamoDBMapper provideDynamoDBMapper(@Named("AmazonDynamoDB") AmazonDynamoDB amazonDynamoDB) {
+        return new DynamoDBMapper(amazonDynamoDB);
     }
 
     @Singleton
     @Provides
     @Named("NonCachingReferralDao")
     @Inject
-    public NonCachingReferralDao provideNonCachingReferralDao(@Named("DynamoDBMapper") DynamoDBMapper mapper) {
-        return new NonCachingReferralDao(mapper);
+    public NonCachingReferralDao provideNonCachingReferralDao(@Named("DynamoDBMapper") DynamoDBMapper mapper,
+                                                              @Named("AmazonDynamoDB") AmazonDynamoDB amazonDynamoDB) {
+        return new NonCachingReferralDao(mapper, amazonDynamoDB);
     }
 
     @Singleton
@@ -44,8 +58,10 @@ public class DaoModule {
     @Inject
     public ReferralDao provideReferralDao(
             @Named("CacheClient") CacheClient cacheClient,
-            @Named("NonCachingReferralDao") NonCachingReferralDao nonCachingReferralDao) {
-        return new CachingReferralDao(cacheClient, nonCachingReferralDao);
+            @Named("NonCachingReferralDao") NonCachingReferralDao nonCachingReferralDao,
+            ReferralListCodec referralListCodec,
+            @Named("ReferralNearCache") Cache<String, List<ReferralRecord>> nearCache) {
+        return new CachingReferralDao(cacheClient, nonCachingReferralDao, referralListCodec, nearCache);
     }
 
 }
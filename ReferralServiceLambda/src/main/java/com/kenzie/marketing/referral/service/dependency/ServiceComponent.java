@@ -1,10 +1,15 @@
 package com.kenzie.marketing.referral.service.dependency;
 
 import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.dao.ReferralDao;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import dagger.Component;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 /**
@@ -15,4 +20,8 @@ import javax.inject.Singleton;
 public interface ServiceComponent {
     ReferralService provideReferralService();
     Jedis provideJedis();
+    JedisPool provideJedisPool();
+    @Named("ReferralDao") ReferralDao provideReferralDao();
+    @Named("DynamoDBMapper") DynamoDBMapper provideDynamoDBMapper();
+    @Named("AmazonDynamoDB") AmazonDynamoDB provideAmazonDynamoDB();
 }
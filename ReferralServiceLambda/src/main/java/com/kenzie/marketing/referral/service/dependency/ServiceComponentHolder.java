@@ -0,0 +1,33 @@
+package com.kenzie.marketing.referral.service.dependency;
+
+import org.crac.Core;
+
+/**
+ * Holds the one ServiceComponent of this container.
+ *
+ * Lambda keeps the JVM alive between invocations, so the component and its singletons (the DynamoDB client and
+ * mapper, the redis pool, the worker pool and the ReferralService) are built once when this class is loaded and
+ * then shared by every handler and every invocation.  Everything the component provides is thread safe.
+ *
+ * See ColdStartPrimer for the work that can be moved into the init phase as well.
+ */
+public final class ServiceComponentHolder {
+
+    private static final ServiceComponent SERVICE_COMPONENT = DaggerServiceComponent.create();
+    // Held here because org.crac only keeps weak references to registered resources
+    private static final ColdStartPrimer COLD_START_PRIMER = new ColdStartPrimer(SERVICE_COMPONENT);
+
+    static {
+        Core.getGlobalContext().register(COLD_START_PRIMER);
+        if ("true".equalsIgnoreCase(System.getenv("COLD_START_PRIMING"))) {
+            COLD_START_PRIMER.prime();
+        }
+    }
+
+    private ServiceComponentHolder() {
+    }
+
+    public static ServiceComponent getServiceComponent() {
+        return SERVICE_COMPONENT;
+    }
+}
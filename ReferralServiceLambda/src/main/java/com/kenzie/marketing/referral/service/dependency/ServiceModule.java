@@ -1,12 +1,17 @@
 package com.kenzie.marketing.referral.service.dependency;
 
-import com.kenzie.marketing.referral.service.ReferralService;
-import com.kenzie.marketing.referral.service.dao.ReferralDao;
+import com.kenzie.marketing.referral.service.util.EnvironmentConfig;
 
 import dagger.Module;
 import dagger.Provides;
 
-import javax.inject.Inject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
@@ -15,11 +20,53 @@ import javax.inject.Singleton;
 )
 public class ServiceModule {
 
+    private static final int DEFAULT_WORKER_THREADS = 16;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Provides the number of workers in the referral worker pool, REFERRAL_WORKER_THREADS (default 16).
+     * @return the pool size
+     */
+    @Provides
+    @Named("ReferralParallelism")
+    public int provideReferralParallelism() {
+        return Math.max(1, EnvironmentConfig.getInt("REFERRAL_WORKER_THREADS", DEFAULT_WORKER_THREADS));
+    }
+
+    /**
+     * Provides the worker pool used to walk referral trees. The pool lives as long as the component, and its size
+     * bounds the number of concurrent DynamoDB queries a single request can make.
+     *
+     * REFERRAL_WORKER_THREADS sets the pool size (default 16) and REFERRAL_EXECUTOR_MODE=forkjoin swaps the fixed
+     * thread pool for a work stealing ForkJoinPool of the same parallelism.
+     * @return A bounded ExecutorService
+     */
     @Singleton
     @Provides
-    @Inject
-    public ReferralService provideReferralService(@Named("ReferralDao") ReferralDao referralDao) {
-        return new ReferralService(referralDao);
+    @Named("ReferralExecutor")
+    public ExecutorService provideReferralExecutor(@Named("ReferralParallelism") int workerThreads) {
+        if ("forkjoin".equalsIgnoreCase(System.getenv("REFERRAL_EXECUTOR_MODE"))) {
+            return new ForkJoinPool(workerThreads);
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workerThreads, workerThreads,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ReferralWorkerThreadFactory());
+        // Let idle workers exit so a quiet container doesn't hold on to threads
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
-}
 
+    /**
+     * Daemon threads, so an idle pool never keeps the JVM alive.
+     */
+    private static class ReferralWorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "referral-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
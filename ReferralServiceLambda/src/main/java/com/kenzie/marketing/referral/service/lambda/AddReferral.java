@@ -4,16 +4,15 @@ import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.ReferralResponse;
 import com.kenzie.marketing.referral.service.ReferralService;
 import com.kenzie.marketing.referral.service.converter.JsonStringToReferralConverter;
-import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
-import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponentHolder;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -21,22 +20,21 @@ public class AddReferral implements RequestHandler<APIGatewayProxyRequestEvent,
 
     static final Logger log = LogManager.getLogger();
 
+    // Built during the init phase and reused by every warm invocation
+    private static final ReferralService REFERRAL_SERVICE =
+            ServiceComponentHolder.getServiceComponent().provideReferralService();
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
         JsonStringToReferralConverter jsonStringToReferralConverter = new JsonStringToReferralConverter();
-        GsonBuilder builder = new GsonBuilder();
-        Gson gson = builder.create();
-        // Logging the request json to make debugging easier.
-        log.info(gson.toJson(input));
-
-        ServiceComponent serviceComponent = DaggerServiceComponent.create();
-        ReferralService referralService = serviceComponent.provideReferralService();
+        Gson gson = GsonProvider.getGson();
+        RequestLogger.logRequest(log, "AddReferral", input);
 
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
 
         try {
             ReferralRequest referralRequest = jsonStringToReferralConverter.convert(input.getBody());
-            ReferralResponse referralResponse = referralService.addReferral(referralRequest);
+            ReferralResponse referralResponse = REFERRAL_SERVICE.addReferral(referralRequest);
             return response
                     .withStatusCode(200)
                     .withBody(gson.toJson(referralResponse));
@@ -0,0 +1,102 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Reads API Gateway proxy events from, and writes proxy responses to, the raw streams of a RequestStreamHandler.
+ */
+final class ApiGatewayStreams {
+
+    private static final Type STRING_MAP_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+
+    private ApiGatewayStreams() {
+    }
+
+    /**
+     * Reads the parts of a proxy event the handlers, the router and the request logger use: the method, path and
+     * resource, the path and query string parameters, headers, body and the request id of the request context.
+     */
+    static APIGatewayProxyRequestEvent readRequest(Gson gson, InputStream input) {
+        Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+        JsonObject event = JsonParser.parseReader(reader).getAsJsonObject();
+
+        APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent();
+        request.setHttpMethod(readString(event, "httpMethod"));
+        request.setPath(readString(event, "path"));
+        request.setResource(readString(event, "resource"));
+        JsonElement requestContext = event.get("requestContext");
+        if (requestContext != null && requestContext.isJsonObject()) {
+            request.setRequestContext(new APIGatewayProxyRequestEvent.ProxyRequestContext()
+                    .withRequestId(readString(requestContext.getAsJsonObject(), "requestId")));
+        }
+        request.setPathParameters(readStringMap(gson, event.get("pathParameters")));
+        request.setQueryStringParameters(readStringMap(gson, event.get("queryStringParameters")));
+        request.setHeaders(readStringMap(gson, event.get("headers")));
+        request.setBody(readString(event, "body"));
+        return request;
+    }
+
+    /**
+     * Writes a proxy response whose body is the JSON form of the given object, serialized straight into the
+     * output stream.
+     */
+    static void writeJsonResponse(Gson gson, OutputStream output, int statusCode, Object body) throws IOException {
+        Writer writer = startResponse(output, statusCode);
+        gson.toJson(body, new JsonStringEscapingWriter(writer));
+        finishResponse(writer);
+    }
+
+    /**
+     * Writes a proxy response with a plain text body.
+     */
+    static void writeTextResponse(OutputStream output, int statusCode, String body) throws IOException {
+        Writer writer = startResponse(output, statusCode);
+        new JsonStringEscapingWriter(writer).write(body);
+        finishResponse(writer);
+    }
+
+    private static Writer startResponse(OutputStream output, int statusCode) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        writer.write("{\"statusCode\":");
+        writer.write(Integer.toString(statusCode));
+        writer.write(",\"headers\":{\"Content-Type\":\"application/json\"},\"body\":\"");
+        return writer;
+    }
+
+    private static void finishResponse(Writer writer) throws IOException {
+        writer.write("\"}");
+        writer.flush();
+    }
+
+    private static String readString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        return element.getAsString();
+    }
+
+    private static Map<String, String> readStringMap(Gson gson, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        return gson.fromJson(element, STRING_MAP_TYPE);
+    }
+}
@@ -0,0 +1,54 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.kenzie.marketing.referral.model.BatchReferralRequest;
+import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.converter.JsonStringToBatchReferralRequestConverter;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponentHolder;
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class GetDirectReferralsBatch
+        implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    static final Logger log = LogManager.getLogger();
+
+    // Built during the init phase and reused by every warm invocation
+    private static final ReferralService REFERRAL_SERVICE =
+            ServiceComponentHolder.getServiceComponent().provideReferralService();
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        JsonStringToBatchReferralRequestConverter converter = new JsonStringToBatchReferralRequestConverter();
+        Gson gson = GsonProvider.getGson();
+        RequestLogger.logRequest(log, "GetDirectReferralsBatch", input);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withHeaders(headers);
+
+        try {
+            BatchReferralRequest batchRequest = converter.convert(input.getBody());
+            String output = gson.toJson(REFERRAL_SERVICE.getDirectReferrals(batchRequest.getCustomerIds()));
+            return response
+                    .withStatusCode(200)
+                    .withBody(output);
+        } catch (InvalidDataException e) {
+            return response
+                    .withStatusCode(400)
+                    .withBody(gson.toJson(e.errorPayload()));
+        }
+    }
+}
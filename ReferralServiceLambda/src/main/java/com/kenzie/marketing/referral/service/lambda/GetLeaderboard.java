@@ -2,16 +2,15 @@ package com.kenzie.marketing.referral.service.lambda;
 
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.service.ReferralService;
-import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
-import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponentHolder;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -23,15 +22,18 @@ public class GetLeaderboard implements RequestHandler<APIGatewayProxyRequestEven
 
     static final Logger log = LogManager.getLogger();
 
+    // Built during the init phase and reused by every warm invocation
+    private static final ReferralService REFERRAL_SERVICE =
+            ServiceComponentHolder.getServiceComponent().provideReferralService();
+
+    private static final int DEFAULT_LEADERBOARD_SIZE = 5;
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        GsonBuilder builder = new GsonBuilder();
-        Gson gson = builder.create();
+        Gson gson = GsonProvider.getGson();
 
-        log.info(gson.toJson(input));
+        RequestLogger.logRequest(log, "GetLeaderboard", input);
 
-        ServiceComponent serviceComponent = DaggerServiceComponent.create();
-        ReferralService referralService = serviceComponent.provideReferralService();
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/json");
 
@@ -39,7 +41,7 @@ public class GetLeaderboard implements RequestHandler<APIGatewayProxyRequestEven
                 .withHeaders(headers);
 
         try {
-            List<LeaderboardEntry> leaderboard = referralService.getReferralLeaderboard();
+            List<LeaderboardEntry> leaderboard = REFERRAL_SERVICE.getReferralLeaderboard(getLeaderboardSize(input));
             String output = gson.toJson(leaderboard);
 
             return response
@@ -52,4 +54,19 @@ public class GetLeaderboard implements RequestHandler<APIGatewayProxyRequestEven
                     .withBody(gson.toJson(e.errorPayload()));
         }
     }
+
+    /**
+     * Reads the optional "size" query string parameter, defaulting to the standard top five.
+     */
+    static int getLeaderboardSize(APIGatewayProxyRequestEvent input) {
+        Map<String, String> queryParameters = input.getQueryStringParameters();
+        if (queryParameters == null || queryParameters.get("size") == null) {
+            return DEFAULT_LEADERBOARD_SIZE;
+        }
+        try {
+            return Integer.parseInt(queryParameters.get("size"));
+        } catch (NumberFormatException e) {
+            throw new InvalidDataException("Leaderboard size must be a number");
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
+import com.kenzie.marketing.referral.service.ReferralService;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponentHolder;
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Serves the same requests as GetLeaderboard, but writes the leaderboard straight to the response stream.
+ */
+public class GetLeaderboardStreaming implements RequestStreamHandler {
+
+    static final Logger log = LogManager.getLogger();
+
+    // Built during the init phase and reused by every warm invocation
+    private static final ReferralService REFERRAL_SERVICE =
+            ServiceComponentHolder.getServiceComponent().provideReferralService();
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        Gson gson = GsonProvider.getGson();
+        APIGatewayProxyRequestEvent request = ApiGatewayStreams.readRequest(gson, input);
+
+        RequestLogger.logRequest(log, "GetLeaderboardStreaming", request);
+
+        try {
+            List<LeaderboardEntry> leaderboard =
+                    REFERRAL_SERVICE.getReferralLeaderboard(GetLeaderboard.getLeaderboardSize(request));
+            ApiGatewayStreams.writeJsonResponse(gson, output, 200, leaderboard);
+        } catch (InvalidDataException e) {
+            ApiGatewayStreams.writeJsonResponse(gson, output, 400, e.errorPayload());
+        }
+    }
+}
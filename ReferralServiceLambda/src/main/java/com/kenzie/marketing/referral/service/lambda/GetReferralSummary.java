@@ -1,16 +1,15 @@
 package com.kenzie.marketing.referral.service.lambda;
 
 import com.kenzie.marketing.referral.service.ReferralService;
-import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
-import com.kenzie.marketing.referral.service.dependency.DaggerServiceComponent;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponentHolder;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -22,15 +21,14 @@ public class GetReferralSummary
 
     static final Logger log = LogManager.getLogger();
 
+    // Built during the init phase and reused by every warm invocation
+    private static final ReferralService REFERRAL_SERVICE =
+            ServiceComponentHolder.getServiceComponent().provideReferralService();
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        GsonBuilder builder = new GsonBuilder();
-        Gson gson = builder.create();
-        // Logging the request json to make debugging easier.
-        log.info(gson.toJson(input));
-
-        ServiceComponent serviceComponent = DaggerServiceComponent.create();
-        ReferralService referralService = serviceComponent.provideReferralService();
+        Gson gson = GsonProvider.getGson();
+        RequestLogger.logRequest(log, "GetReferralSummary", input);
 
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/json");
@@ -47,7 +45,7 @@ public class GetReferralSummary
         }
 
         try {
-            String output = gson.toJson(referralService.getCustomerReferralSummary(customerId));
+            String output = gson.toJson(REFERRAL_SERVICE.getCustomerReferralSummary(customerId));
             return response
                     .withStatusCode(200)
                     .withBody(output);
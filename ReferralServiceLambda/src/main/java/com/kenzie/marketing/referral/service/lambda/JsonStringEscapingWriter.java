@@ -0,0 +1,75 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Escapes everything written to it as the contents of a JSON string, so a response body can be serialized straight
+ * into the "body" field of an API Gateway proxy response without building it as a String first.
+ */
+class JsonStringEscapingWriter extends Writer {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    JsonStringEscapingWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.write("\\u");
+                    out.write(HEX_DIGITS[(c >> 12) & 0xf]);
+                    out.write(HEX_DIGITS[(c >> 8) & 0xf]);
+                    out.write(HEX_DIGITS[(c >> 4) & 0xf]);
+                    out.write(HEX_DIGITS[c & 0xf]);
+                } else {
+                    out.write(c);
+                }
+        }
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // The underlying writer still has the rest of the response to write, so it is left open
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,103 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.kenzie.marketing.referral.service.util.GsonProvider;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single handler for every referral route, for deployments that run the whole service as one function.
+ *
+ * Each route is dispatched to the same handler class the per-function deployment uses, so both deployments behave
+ * the same.  All routes share one container pool and with it one ReferralService, redis pool and near cache.
+ */
+public class ReferralRouter implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    // Keyed by method and API Gateway resource, in the order paths are matched when no resource is given
+    private static final Map<String, RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>>
+            ROUTES = new LinkedHashMap<>();
+
+    static {
+        ROUTES.put("POST /referral/add", new AddReferral());
+        ROUTES.put("POST /referral/list", new GetDirectReferralsBatch());
+        ROUTES.put("POST /referral/summary", new GetReferralSummaryBatch());
+        ROUTES.put("GET /referral/leaderboard", new GetLeaderboard());
+        ROUTES.put("GET /referral/list/{customerId}", new GetDirectReferrals());
+        ROUTES.put("GET /referral/{customerId}", new GetReferralSummary());
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler = findHandler(input);
+        if (handler == null) {
+            Map<String, Object> errorPayload = new HashMap<>();
+            errorPayload.put("errorType", "not_found");
+            errorPayload.put("message", "No route for " + input.getHttpMethod() + " " + input.getPath());
+            return new APIGatewayProxyResponseEvent()
+                    .withStatusCode(404)
+                    .withBody(GsonProvider.getGson().toJson(errorPayload));
+        }
+        return handler.handleRequest(input, context);
+    }
+
+    /**
+     * Finds the handler of a request.  API Gateway names the matched resource, otherwise the path is matched against
+     * each route's resource template.  Path parameters are filled in from the path when they are missing.
+     */
+    static RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> findHandler(
+            APIGatewayProxyRequestEvent input) {
+        String method = input.getHttpMethod() == null ? "" : input.getHttpMethod().toUpperCase();
+        if (input.getResource() != null) {
+            RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> handler =
+                    ROUTES.get(method + " " + input.getResource());
+            if (handler != null) {
+                return handler;
+            }
+        }
+        if (input.getPath() == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> route
+                : ROUTES.entrySet()) {
+            String[] routeKey = route.getKey().split(" ", 2);
+            if (!routeKey[0].equals(method)) {
+                continue;
+            }
+            Map<String, String> pathParameters = matchPath(routeKey[1], input.getPath());
+            if (pathParameters != null) {
+                if (input.getPathParameters() == null) {
+                    input.setPathParameters(pathParameters);
+                }
+                return route.getValue();
+            }
+        }
+        return null;
+    }
+
+    // Returns the path parameters if the path matches the template, or null if it doesn't
+    private static Map<String, String> matchPath(String template, String path) {
+        String[] templateSegments = template.replaceAll("^/+|/+$", "").split("/");
+        String[] pathSegments = path.replaceAll("^/+|/+$", "").split("/");
+        if (templateSegments.length != pathSegments.length) {
+            return null;
+        }
+
+        Map<String, String> pathParameters = new HashMap<>();
+        for (int i = 0; i < templateSegments.length; i++) {
+            String templateSegment = templateSegments[i];
+            if (templateSegment.startsWith("{") && templateSegment.endsWith("}")) {
+                pathParameters.put(templateSegment.substring(1, templateSegment.length() - 1), pathSegments[i]);
+            } else if (!templateSegment.equals(pathSegments[i])) {
+                return null;
+            }
+        }
+        return pathParameters;
+    }
+}
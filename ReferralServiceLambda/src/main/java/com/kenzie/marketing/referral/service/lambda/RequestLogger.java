@@ -0,0 +1,53 @@
+package com.kenzie.marketing.referral.service.lambda;
+
+import com.kenzie.marketing.referral.service.util.EnvironmentConfig;
+import com.kenzie.marketing.referral.service.util.GsonProvider;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.StringMapMessage;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs incoming requests as a single structured line with only the fields needed to follow a request.
+ *
+ * LOG_SAMPLE_PERCENT (default 10) sets the share of requests that are logged, the rest skip building the message
+ * entirely.  The full event is only serialized when debug logging is enabled.
+ */
+final class RequestLogger {
+
+    private static final int SAMPLE_PERCENT = EnvironmentConfig.getInt("LOG_SAMPLE_PERCENT", 10);
+
+    private RequestLogger() {
+    }
+
+    static void logRequest(Logger log, String handler, APIGatewayProxyRequestEvent request) {
+        if (log.isDebugEnabled()) {
+            log.debug(GsonProvider.getGson().toJson(request));
+            return;
+        }
+        if (!log.isInfoEnabled() || ThreadLocalRandom.current().nextInt(100) >= SAMPLE_PERCENT) {
+            return;
+        }
+
+        StringMapMessage message = new StringMapMessage()
+                .with("handler", handler);
+        if (request.getRequestContext() != null && request.getRequestContext().getRequestId() != null) {
+            message.with("requestId", request.getRequestContext().getRequestId());
+        }
+        addParameters(message, request.getPathParameters());
+        addParameters(message, request.getQueryStringParameters());
+        if (request.getBody() != null) {
+            message.with("bodyLength", request.getBody().length());
+        }
+        log.info(message);
+    }
+
+    private static void addParameters(StringMapMessage message, Map<String, String> parameters) {
+        if (parameters != null) {
+            parameters.forEach(message::with);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.kenzie.marketing.referral.service.local;
+
+import com.kenzie.marketing.referral.service.dependency.ServiceComponent;
+import com.kenzie.marketing.referral.service.dependency.ServiceComponentHolder;
+import com.kenzie.marketing.referral.service.lambda.ReferralRouter;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.kenzie.marketing.referral.service.util.EnvironmentConfig;
+
+import com.amazonaws.services.dynamodbv2.model.BillingMode;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the referral routes over plain HTTP on this machine, so the service can be load tested and profiled
+ * without deploying it.  Requests are turned into API Gateway proxy events and passed to the ReferralRouter, so
+ * they run through the same handler classes as in Lambda.
+ *
+ * LOCAL_SERVER_PORT sets the port (default 8080).  LOCAL_SERVER_THREAD_MODEL=virtual serves every request on its
+ * own virtual thread, which needs Java 21 or later, otherwise a pool of LOCAL_SERVER_THREADS (default 64) platform
+ * threads is used.  With DYNAMODB_ENDPOINT set, the Referral table is created there if it doesn't exist yet.
+ */
+public class LocalReferralServer {
+
+    static final Logger log = LogManager.getLogger();
+
+    private static final ReferralRouter ROUTER = new ReferralRouter();
+
+    public static void main(String[] args) throws IOException {
+        if (System.getenv("DYNAMODB_ENDPOINT") != null) {
+            createReferralTableIfMissing(ServiceComponentHolder.getServiceComponent());
+        }
+
+        int port = EnvironmentConfig.getInt("LOCAL_SERVER_PORT", 8080);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", LocalReferralServer::handle);
+        server.setExecutor(createExecutor());
+        server.start();
+        log.info("Serving the referral routes on http://localhost:{}", port);
+    }
+
+    private static Executor createExecutor() {
+        if ("virtual".equalsIgnoreCase(System.getenv("LOCAL_SERVER_THREAD_MODEL"))) {
+            // Looked up at runtime, the project itself still compiles for Java 11
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+            }
+        }
+        return Executors.newFixedThreadPool(EnvironmentConfig.getInt("LOCAL_SERVER_THREADS", 64));
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            APIGatewayProxyResponseEvent response;
+            try {
+                // None of the handlers use the Lambda context
+                response = ROUTER.handleRequest(toRequestEvent(exchange), null);
+            } catch (RuntimeException e) {
+                log.error("Request failed", e);
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(500)
+                        .withBody(String.valueOf(e.getMessage()));
+            }
+            writeResponse(exchange, response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static APIGatewayProxyRequestEvent toRequestEvent(HttpExchange exchange) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            headers.put(header.getKey(), header.getValue().get(0));
+        }
+
+        String body;
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            body = new String(requestBody.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        return new APIGatewayProxyRequestEvent()
+                .withHttpMethod(exchange.getRequestMethod())
+                .withPath(exchange.getRequestURI().getPath())
+                .withQueryStringParameters(parseQuery(exchange.getRequestURI().getRawQuery()))
+                .withHeaders(headers)
+                .withBody(body.isEmpty() ? null : body);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return null;
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : rawQuery.split("&")) {
+            String[] nameAndValue = parameter.split("=", 2);
+            parameters.put(URLDecoder.decode(nameAndValue[0], StandardCharsets.UTF_8),
+                    nameAndValue.length > 1 ? URLDecoder.decode(nameAndValue[1], StandardCharsets.UTF_8) : "");
+        }
+        return parameters;
+    }
+
+    private static void writeResponse(HttpExchange exchange, APIGatewayProxyResponseEvent response)
+            throws IOException {
+        if (response.getHeaders() != null) {
+            response.getHeaders().forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        }
+        byte[] body = response.getBody() == null ? new byte[0] : response.getBody().getBytes(StandardCharsets.UTF_8);
+        int statusCode = response.getStatusCode() == null ? 200 : response.getStatusCode();
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        }
+    }
+
+    // DynamoDB Local starts empty, so build the table from the ReferralRecord mapping
+    private static void createReferralTableIfMissing(ServiceComponent serviceComponent) {
+        CreateTableRequest createTable = serviceComponent.provideDynamoDBMapper()
+                .generateCreateTableRequest(ReferralRecord.class)
+                .withBillingMode(BillingMode.PAY_PER_REQUEST);
+        if (createTable.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndex index : createTable.getGlobalSecondaryIndexes()) {
+                index.setProjection(new Projection().withProjectionType(ProjectionType.ALL));
+            }
+        }
+        if (TableUtils.createTableIfNotExists(serviceComponent.provideAmazonDynamoDB(), createTable)) {
+            log.info("Created the {} table", createTable.getTableName());
+        }
+    }
+}
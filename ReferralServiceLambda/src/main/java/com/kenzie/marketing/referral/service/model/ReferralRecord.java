@@ -4,6 +4,7 @@ import com.kenzie.marketing.referral.service.converter.ZonedDateTimeConverter;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverted;
@@ -17,6 +18,11 @@ public class ReferralRecord {
     private String customerId;
     private String referrerId;
     private ZonedDateTime dateReferred;
+    private Integer numFirstLevelReferrals;
+    private Integer numSecondLevelReferrals;
+    private Integer numThirdLevelReferrals;
+    private Integer pendingReferrals;
+    private Integer referralVersion;
 
     @DynamoDBHashKey(attributeName = "CustomerId")
     public String getCustomerId() {
@@ -35,6 +41,49 @@ public class ReferralRecord {
         return dateReferred;
     }
 
+    @DynamoDBAttribute(attributeName = "NumFirstLevelReferrals")
+    public Integer getNumFirstLevelReferrals() {
+        return numFirstLevelReferrals;
+    }
+
+    @DynamoDBAttribute(attributeName = "NumSecondLevelReferrals")
+    public Integer getNumSecondLevelReferrals() {
+        return numSecondLevelReferrals;
+    }
+
+    @DynamoDBAttribute(attributeName = "NumThirdLevelReferrals")
+    public Integer getNumThirdLevelReferrals() {
+        return numThirdLevelReferrals;
+    }
+
+    /**
+     * Referrals being added under this customer, which a tree walk running meanwhile may or may not see.
+     * @return the number of referrals in flight, or null if none was ever added
+     */
+    @DynamoDBAttribute(attributeName = "PendingReferrals")
+    public Integer getPendingReferrals() {
+        return pendingReferrals;
+    }
+
+    /**
+     * Bumped each time a referral under this customer finishes, so counts from a tree walk can be stored only if no
+     * referral was added since the record was loaded.
+     * @return the referral version, or null if no referral was ever added
+     */
+    @DynamoDBAttribute(attributeName = "ReferralVersion")
+    public Integer getReferralVersion() {
+        return referralVersion;
+    }
+
+    /**
+     * Customers referred before the counts were materialized don't have them until their first summary read.
+     * @return true if the referral counts are stored on this record
+     */
+    @DynamoDBIgnore
+    public boolean hasReferralCounts() {
+        return numFirstLevelReferrals != null && numSecondLevelReferrals != null && numThirdLevelReferrals != null;
+    }
+
     public void setCustomerId(String customerId) {
         this.customerId = customerId;
     }
@@ -47,6 +96,26 @@ public class ReferralRecord {
         this.dateReferred = dateReferred;
     }
 
+    public void setNumFirstLevelReferrals(Integer numFirstLevelReferrals) {
+        this.numFirstLevelReferrals = numFirstLevelReferrals;
+    }
+
+    public void setNumSecondLevelReferrals(Integer numSecondLevelReferrals) {
+        this.numSecondLevelReferrals = numSecondLevelReferrals;
+    }
+
+    public void setNumThirdLevelReferrals(Integer numThirdLevelReferrals) {
+        this.numThirdLevelReferrals = numThirdLevelReferrals;
+    }
+
+    public void setPendingReferrals(Integer pendingReferrals) {
+        this.pendingReferrals = pendingReferrals;
+    }
+
+    public void setReferralVersion(Integer referralVersion) {
+        this.referralVersion = referralVersion;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
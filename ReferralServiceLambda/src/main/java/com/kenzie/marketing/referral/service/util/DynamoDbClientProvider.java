@@ -1,12 +1,15 @@
 package com.kenzie.marketing.referral.service.util;
 
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 
 /**
  * Provides an {@code AmazonDynamoDB} client using default AWS credentials provider chain.
+ *
+ * Setting DYNAMODB_ENDPOINT points the client at another endpoint, such as DynamoDB Local.
  */
 public class DynamoDbClientProvider {
 
@@ -28,10 +31,18 @@ public class DynamoDbClientProvider {
             throw new IllegalArgumentException("region cannot be null");
         }
 
-        return AmazonDynamoDBClientBuilder
+        AmazonDynamoDBClientBuilder builder = AmazonDynamoDBClientBuilder
                 .standard()
                 // this will use multiple providers to look for AWS credentials
-                .withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
+                .withCredentials(DefaultAWSCredentialsProviderChain.getInstance());
+
+        String endpoint = System.getenv("DYNAMODB_ENDPOINT");
+        if (endpoint != null && endpoint.length() > 0) {
+            return builder
+                    .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region.getName()))
+                    .build();
+        }
+        return builder
                 // This should be the same region the CloudFormation stack with tables was deployed in
                 .withRegion(region)
                 .build();
@@ -0,0 +1,27 @@
+package com.kenzie.marketing.referral.service.util;
+
+/**
+ * Reads optional tuning settings from environment variables.
+ */
+public class EnvironmentConfig {
+
+    private EnvironmentConfig() {}
+
+    /**
+     * Returns the integer value of an environment variable.
+     * @param name the environment variable
+     * @param defaultValue used when the variable is not set or is not a number
+     * @return int
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.kenzie.marketing.referral.service.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+
+/**
+ * Provides the {@code Gson} instance shared by the handlers, converters and cache codecs.
+ */
+public class GsonProvider {
+
+    // Create the Gson object with instructions for ZonedDateTime.  Gson is thread safe, so one instance is enough.
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapter(
+            ZonedDateTime.class,
+            new TypeAdapter<ZonedDateTime>() {
+                @Override
+                public void write(JsonWriter out, ZonedDateTime value) throws IOException {
+                    out.value(value.toString());
+                }
+                @Override
+                public ZonedDateTime read(JsonReader in) throws IOException {
+                    return ZonedDateTime.parse(in.nextString());
+                }
+            }
+    ).enableComplexMapKeySerialization().create();
+
+    /**
+     * Returns the shared Gson instance.
+     * @return Gson
+     */
+    public static Gson getGson() {
+        return GSON;
+    }
+}
@@ -1,13 +1,20 @@
 package com.kenzie.marketing.referral.service;
 
 
+import com.kenzie.marketing.referral.model.CustomerReferrals;
+import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.model.Referral;
 import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.ReferralResponse;
+import com.kenzie.marketing.referral.service.caching.BinaryReferralListCodec;
+import com.kenzie.marketing.referral.service.caching.CacheClient;
+import com.kenzie.marketing.referral.service.caching.CachingReferralDao;
 import com.kenzie.marketing.referral.service.converter.ZonedDateTimeConverter;
+import com.kenzie.marketing.referral.service.dao.NonCachingReferralDao;
 import com.kenzie.marketing.referral.service.dao.ReferralDao;
 import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
 import com.kenzie.marketing.referral.service.model.ReferralRecord;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import net.andreinc.mockneat.MockNeat;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -17,15 +24,32 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -68,6 +92,7 @@ class ReferralServiceTest {
         assertEquals(customerId, record.getCustomerId(), "The record customerId should match");
         assertEquals(referrerId, record.getReferrerId(), "The record referrerId should match");
         assertNotNull(record.getDateReferred(), "The record referral date exists");
+        assertTrue(record.hasReferralCounts(), "A new record starts with materialized referral counts");
 
         assertNotNull(response, "A response is returned");
         assertEquals(customerId, response.getCustomerId(), "The response customerId should match");
@@ -129,6 +154,306 @@ class ReferralServiceTest {
         }
     }
 
+    @Test
+    void getReferralLeaderboard_uses_referral_count_index() {
+        // GIVEN
+        ReferralDao indexedReferralDao = mock(ReferralDao.class);
+        ReferralService indexedReferralService = new ReferralService(indexedReferralDao);
+
+        List<LeaderboardEntry> topReferrers = new ArrayList<>();
+        topReferrers.add(new LeaderboardEntry(3, "customer1"));
+        topReferrers.add(new LeaderboardEntry(1, "customer2"));
+
+        when(indexedReferralDao.findTopReferrers(5)).thenReturn(Optional.of(topReferrers));
+
+        // WHEN
+        List<LeaderboardEntry> leaderboard = indexedReferralService.getReferralLeaderboard();
+
+        // THEN
+        assertEquals(topReferrers, leaderboard, "The leaderboard comes from the referral count index");
+        verify(indexedReferralDao, never()).findUsersWithoutReferrerId();
+        verify(indexedReferralDao, never()).findByReferrerId(anyString());
+    }
+
+    @Test
+    void getReferralLeaderboard_walks_referral_trees_without_index() {
+        // GIVEN
+        ReferralDao treeReferralDao = mock(ReferralDao.class);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ReferralService treeReferralService = new ReferralService(treeReferralDao, executor);
+
+        ReferralRecord root = new ReferralRecord();
+        root.setCustomerId("root");
+        List<ReferralRecord> roots = new ArrayList<>();
+        roots.add(root);
+
+        when(treeReferralDao.findTopReferrers(5)).thenReturn(Optional.empty());
+        when(treeReferralDao.findUsersWithoutReferrerId()).thenReturn(roots);
+        Map<String, List<ReferralRecord>> tree = new HashMap<>();
+        tree.put("root", referralsOf("root", "a", "b", "c"));
+        tree.put("a", referralsOf("a", "a1", "a2"));
+        tree.put("a1", referralsOf("a1", "a11"));
+        stubReferralTree(treeReferralDao, tree);
+
+        // WHEN
+        List<LeaderboardEntry> leaderboard = treeReferralService.getReferralLeaderboard();
+        List<LeaderboardEntry> secondLeaderboard = treeReferralService.getReferralLeaderboard();
+
+        // THEN
+        assertEquals(3, leaderboard.size(), "Only customers with referrals are on the leaderboard");
+        assertEquals("root", leaderboard.get(0).getCustomerId(), "The root has the most referrals");
+        assertEquals(3, leaderboard.get(0).getNumReferrals());
+        assertEquals("a", leaderboard.get(1).getCustomerId());
+        assertEquals(2, leaderboard.get(1).getNumReferrals());
+        assertEquals("a1", leaderboard.get(2).getCustomerId());
+        assertEquals(1, leaderboard.get(2).getNumReferrals());
+        assertEquals(3, secondLeaderboard.size(), "The executor can serve more than one leaderboard");
+        assertFalse(executor.isShutdown(), "The executor is not shut down after a leaderboard");
+        verify(treeReferralDao, never()).findByReferrerId(anyString());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void getReferralLeaderboard_index_and_tree_walk_agree() {
+        // GIVEN
+        Map<String, List<ReferralRecord>> tree = new HashMap<>();
+        tree.put("root1", referralsOf("root1", "a", "b", "c"));
+        tree.put("root2", referralsOf("root2", "d", "e"));
+        tree.put("a", referralsOf("a", "a1", "a2"));
+        tree.put("d", referralsOf("d", "d1"));
+        tree.put("e", referralsOf("e", "e1"));
+        List<ReferralRecord> roots = new ArrayList<>();
+        roots.addAll(referralsOf(null, "root1", "root2", "root3"));
+        List<ReferralRecord> allReferrals = new ArrayList<>();
+        tree.values().forEach(allReferrals::addAll);
+
+        ReferralDao treeReferralDao = mock(ReferralDao.class);
+        when(treeReferralDao.findTopReferrers(5)).thenReturn(Optional.empty());
+        when(treeReferralDao.findUsersWithoutReferrerId()).thenReturn(roots);
+        stubReferralTree(treeReferralDao, tree);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ReferralService treeReferralService = new ReferralService(treeReferralDao, executor);
+
+        // The referral count index is rebuilt from the same referrals, in a sorted set that ranks like redis
+        CacheClient cacheClient = mock(CacheClient.class);
+        NonCachingReferralDao nonCachingReferralDao = mock(NonCachingReferralDao.class);
+        when(nonCachingReferralDao.findReferrerIdsOfAllReferrals()).thenReturn(allReferrals);
+        Map<String, Double> sortedSet = new HashMap<>();
+        doAnswer(invocation -> {
+            sortedSet.clear();
+            sortedSet.putAll(scoresArgument(invocation.getArguments()[2]));
+            return null;
+        }).when(cacheClient).setSortedSet(anyString(), anyInt(), anyMapOf(String.class, Double.class));
+        when(cacheClient.getTopScores(anyString(), anyInt())).thenAnswer(invocation -> {
+            Map<String, Double> topScores = new LinkedHashMap<>();
+            sortedSet.entrySet().stream()
+                    .sorted(Map.Entry.<String, Double>comparingByValue()
+                            .thenComparing(Map.Entry.comparingByKey())
+                            .reversed())
+                    .limit((Integer) invocation.getArguments()[1])
+                    .forEach(score -> topScores.put(score.getKey(), score.getValue()));
+            return topScores;
+        });
+        when(cacheClient.getValue(anyString())).thenReturn(Optional.empty());
+        ReferralService indexedReferralService = new ReferralService(new CachingReferralDao(cacheClient,
+                nonCachingReferralDao, new BinaryReferralListCodec(1024), Caffeine.newBuilder().build()));
+
+        // WHEN
+        List<LeaderboardEntry> walkedLeaderboard = treeReferralService.getReferralLeaderboard();
+        List<LeaderboardEntry> indexedLeaderboard = indexedReferralService.getReferralLeaderboard();
+
+        // THEN
+        assertEquals(Arrays.asList("root1:3", "root2:2", "a:2", "e:1", "d:1"), describe(walkedLeaderboard),
+                "The walk leaves out customers without referrals and breaks ties like the index");
+        assertEquals(describe(walkedLeaderboard), describe(indexedLeaderboard),
+                "The index and the tree walk build the same leaderboard");
+        executor.shutdownNow();
+    }
+
+    @Test
+    void getReferralLeaderboard_failed_batch_is_not_dropped() {
+        // GIVEN
+        ReferralDao treeReferralDao = mock(ReferralDao.class);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ReferralService treeReferralService = new ReferralService(treeReferralDao, executor);
+
+        ReferralRecord root = new ReferralRecord();
+        root.setCustomerId("root");
+        List<ReferralRecord> roots = new ArrayList<>();
+        roots.add(root);
+
+        when(treeReferralDao.findTopReferrers(5)).thenReturn(Optional.empty());
+        when(treeReferralDao.findUsersWithoutReferrerId()).thenReturn(roots);
+        when(treeReferralDao.findByReferrerIds(anyCollectionOf(String.class)))
+                .thenThrow(new IllegalStateException("lookup failed"));
+
+        // WHEN / THEN
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> treeReferralService.getReferralLeaderboard(),
+                "A failed batch fails the leaderboard instead of undercounting it");
+        assertEquals("lookup failed", exception.getMessage());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void getReferralLeaderboard_invalid_size() {
+        // WHEN / THEN
+        assertThrows(InvalidDataException.class, ()->this.referralService.getReferralLeaderboard(0));
+        assertThrows(InvalidDataException.class,
+                ()->this.referralService.getReferralLeaderboard(ReferralService.MAX_LEADERBOARD_SIZE + 1));
+    }
+
+    @Test
+    void leaderboardCollector_keeps_top_entries() {
+        // GIVEN
+        LeaderboardCollector collector = new LeaderboardCollector(3);
+
+        // WHEN
+        for (int numReferrals = 0; numReferrals < 10; numReferrals++) {
+            collector.offer(new LeaderboardEntry(numReferrals, "customer" + numReferrals));
+        }
+
+        // THEN
+        List<LeaderboardEntry> topEntries = collector.getTopEntries();
+        assertEquals(3, topEntries.size(), "Only the top three entries are kept");
+        assertEquals(9, topEntries.get(0).getNumReferrals(), "The entries are ordered most referrals first");
+        assertEquals(8, topEntries.get(1).getNumReferrals());
+        assertEquals(7, topEntries.get(2).getNumReferrals());
+    }
+
+    @Test
+    void getCustomerReferralSummary_three_levels() {
+        // GIVEN
+        ReferralDao summaryReferralDao = mock(ReferralDao.class);
+        ReferralService summaryReferralService = new ReferralService(summaryReferralDao);
+
+        when(summaryReferralDao.findByReferrerId("root")).thenReturn(referralsOf("root", "a", "b", "c"));
+        Map<String, List<ReferralRecord>> tree = new HashMap<>();
+        tree.put("a", referralsOf("a", "a1", "a2"));
+        tree.put("b", referralsOf("b", "b1"));
+        tree.put("a1", referralsOf("a1", "a11"));
+        tree.put("a11", referralsOf("a11", "a111"));
+        stubReferralTree(summaryReferralDao, tree);
+
+        // WHEN
+        CustomerReferrals summary = summaryReferralService.getCustomerReferralSummary("root");
+
+        // THEN
+        assertEquals(3, summary.getNumFirstLevelReferrals(), "There are three first level referrals");
+        assertEquals(3, summary.getNumSecondLevelReferrals(), "There are three second level referrals");
+        assertEquals(1, summary.getNumThirdLevelReferrals(), "There is one third level referral");
+        verify(summaryReferralDao, never()).findByReferrerId("a");
+    }
+
+    @Test
+    void getCustomerReferralSummary_materialized_counts() {
+        // GIVEN
+        ReferralDao summaryReferralDao = mock(ReferralDao.class);
+        ReferralService summaryReferralService = new ReferralService(summaryReferralDao);
+
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId("root");
+        record.setNumFirstLevelReferrals(4);
+        record.setNumSecondLevelReferrals(2);
+        record.setNumThirdLevelReferrals(1);
+        when(summaryReferralDao.findByCustomerId("root")).thenReturn(record);
+
+        // WHEN
+        CustomerReferrals summary = summaryReferralService.getCustomerReferralSummary("root");
+
+        // THEN
+        assertEquals(4, summary.getNumFirstLevelReferrals(), "The first level count is read from the record");
+        assertEquals(2, summary.getNumSecondLevelReferrals(), "The second level count is read from the record");
+        assertEquals(1, summary.getNumThirdLevelReferrals(), "The third level count is read from the record");
+        verify(summaryReferralDao, never()).findByReferrerId(anyString());
+    }
+
+    @Test
+    void getCustomerReferralSummaries_loads_records_in_one_batch() {
+        // GIVEN
+        ReferralDao summaryReferralDao = mock(ReferralDao.class);
+        ReferralService summaryReferralService = new ReferralService(summaryReferralDao);
+
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId("root");
+        record.setNumFirstLevelReferrals(3);
+        record.setNumSecondLevelReferrals(0);
+        record.setNumThirdLevelReferrals(0);
+        Map<String, ReferralRecord> records = new HashMap<>();
+        records.put("root", record);
+        when(summaryReferralDao.findByCustomerIds(Arrays.asList("root", "unknown"))).thenReturn(records);
+        when(summaryReferralDao.findByReferrerIds(anyCollectionOf(String.class))).thenReturn(new HashMap<>());
+
+        // WHEN
+        Map<String, CustomerReferrals> summaries =
+                summaryReferralService.getCustomerReferralSummaries(Arrays.asList("root", "unknown"));
+
+        // THEN
+        assertEquals(Arrays.asList("root", "unknown"), new ArrayList<>(summaries.keySet()), "Request order is kept");
+        assertEquals(3, summaries.get("root").getNumFirstLevelReferrals(), "The count is read from the record");
+        assertEquals(0, summaries.get("unknown").getNumFirstLevelReferrals(), "Unknown customers have no referrals");
+        verify(summaryReferralDao, never()).findByCustomerId(anyString());
+    }
+
+    @Test
+    void getCustomerReferralSummary_initializes_missing_counts() {
+        // GIVEN
+        ReferralDao summaryReferralDao = mock(ReferralDao.class);
+        ReferralService summaryReferralService = new ReferralService(summaryReferralDao);
+        ArgumentCaptor<ReferralRecord> countsCaptor = ArgumentCaptor.forClass(ReferralRecord.class);
+
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId("root");
+        when(summaryReferralDao.findByCustomerId("root")).thenReturn(record);
+        when(summaryReferralDao.findByReferrerId("root")).thenReturn(referralsOf("root", "a", "b"));
+        Map<String, List<ReferralRecord>> tree = new HashMap<>();
+        tree.put("a", referralsOf("a", "a1"));
+        stubReferralTree(summaryReferralDao, tree);
+
+        // WHEN
+        summaryReferralService.getCustomerReferralSummary("root");
+
+        // THEN
+        verify(summaryReferralDao).initializeReferralCounts(countsCaptor.capture());
+        ReferralRecord counts = countsCaptor.getValue();
+        assertEquals("root", counts.getCustomerId());
+        assertEquals(2, counts.getNumFirstLevelReferrals(), "The walked first level count is stored");
+        assertEquals(1, counts.getNumSecondLevelReferrals(), "The walked second level count is stored");
+        assertEquals(0, counts.getNumThirdLevelReferrals(), "The walked third level count is stored");
+    }
+
     // Write additional tests here
 
-}
\ No newline at end of file
+    @SuppressWarnings("unchecked")
+    private static Map<String, Double> scoresArgument(Object scores) {
+        return (Map<String, Double>) scores;
+    }
+
+    private static List<String> describe(List<LeaderboardEntry> leaderboard) {
+        return leaderboard.stream()
+                .map(entry -> entry.getCustomerId() + ":" + entry.getNumReferrals())
+                .collect(Collectors.toList());
+    }
+
+    private void stubReferralTree(ReferralDao dao, Map<String, List<ReferralRecord>> tree) {
+        when(dao.findByReferrerIds(anyCollectionOf(String.class))).thenAnswer(invocation -> {
+            Map<String, List<ReferralRecord>> referrals = new HashMap<>();
+            for (Object referrerId : (Collection<?>) invocation.getArguments()[0]) {
+                referrals.put((String) referrerId, tree.getOrDefault(referrerId, new ArrayList<>()));
+            }
+            return referrals;
+        });
+    }
+
+    private List<ReferralRecord> referralsOf(String referrerId, String... customerIds) {
+        List<ReferralRecord> records = new ArrayList<>();
+        for (String customerId : customerIds) {
+            ReferralRecord record = new ReferralRecord();
+            record.setCustomerId(customerId);
+            record.setReferrerId(referrerId);
+            record.setDateReferred(ZonedDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+            records.add(record);
+        }
+        return records;
+    }
+}
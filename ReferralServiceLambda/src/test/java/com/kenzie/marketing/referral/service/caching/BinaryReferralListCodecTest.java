@@ -0,0 +1,122 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryReferralListCodecTest {
+
+    /** ------------------------------------------------------------------------
+     *  binaryReferralListCodec.encode / binaryReferralListCodec.decode
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void round_trips_records() {
+        // GIVEN
+        BinaryReferralListCodec codec = new BinaryReferralListCodec(256);
+        List<ReferralRecord> smallList = referralsOf("root", "a", "b");
+        smallList.get(0).setNumFirstLevelReferrals(2);
+        smallList.get(0).setNumSecondLevelReferrals(1);
+        smallList.get(0).setNumThirdLevelReferrals(0);
+        List<ReferralRecord> largeList = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            largeList.addAll(referralsOf("root", "customer" + i));
+        }
+
+        // WHEN
+        byte[] smallValue = codec.encode(smallList);
+        byte[] largeValue = codec.encode(largeList);
+        List<ReferralRecord> decodedSmallList = codec.decode(smallValue);
+        List<ReferralRecord> decodedLargeList = codec.decode(largeValue);
+        List<ReferralRecord> legacyList = codec.decode(new JsonReferralListCodec().encode(smallList));
+
+        // THEN
+        assertEquals(BinaryReferralListCodec.VERSION_BINARY, smallValue[0], "A small list is stored uncompressed");
+        assertEquals(BinaryReferralListCodec.VERSION_BINARY_GZIP, largeValue[0], "A large list is stored compressed");
+        assertEquals(smallList, decodedSmallList, "The small list is read back");
+        assertEquals(largeList, decodedLargeList, "The large list is read back");
+        assertEquals(smallList, legacyList, "A list cached as JSON is still read");
+        assertEquals(smallList.get(0).getDateReferred().toInstant(),
+                decodedSmallList.get(0).getDateReferred().toInstant());
+        assertEquals(2, decodedSmallList.get(0).getNumFirstLevelReferrals());
+        assertEquals(0, decodedSmallList.get(0).getNumThirdLevelReferrals());
+    }
+
+    @Test
+    void encode_compresses_only_above_the_threshold() {
+        // GIVEN
+        List<ReferralRecord> records = referralsOf("root", "a", "b", "c");
+        int bodySize = new BinaryReferralListCodec(Integer.MAX_VALUE).encode(records).length - 1;
+
+        // WHEN
+        byte[] atThreshold = new BinaryReferralListCodec(bodySize).encode(records);
+        byte[] aboveThreshold = new BinaryReferralListCodec(bodySize - 1).encode(records);
+
+        // THEN
+        assertEquals(BinaryReferralListCodec.VERSION_BINARY, atThreshold[0], "A value at the threshold is plain");
+        assertEquals(BinaryReferralListCodec.VERSION_BINARY_GZIP, aboveThreshold[0],
+                "A value above the threshold is gzipped");
+        assertEquals(records, new BinaryReferralListCodec(0).decode(aboveThreshold),
+                "A gzipped value is read regardless of the reader's threshold");
+    }
+
+    @Test
+    void decode_corrupt_values_throws_illegalArgumentException() throws IOException {
+        // GIVEN
+        BinaryReferralListCodec codec = new BinaryReferralListCodec(0);
+        byte[] plainValue = new BinaryReferralListCodec(Integer.MAX_VALUE).encode(referralsOf("root", "a", "b"));
+        byte[] gzipValue = codec.encode(referralsOf("root", "a", "b"));
+
+        ByteArrayOutputStream badZoneValue = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(badZoneValue);
+        out.writeByte(BinaryReferralListCodec.VERSION_BINARY);
+        out.writeInt(1);
+        out.writeByte(1 << 1);
+        out.writeUTF("a");
+        out.writeLong(0);
+        out.writeUTF("Not/AZone");
+
+        // WHEN - THEN
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[0]), "Empty value");
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[] {9, 0, 0, 0, 0}),
+                "Unknown version");
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode(Arrays.copyOf(plainValue, plainValue.length - 3)), "Truncated value");
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode(Arrays.copyOf(gzipValue, gzipValue.length - 3)), "Truncated gzip value");
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode(Arrays.copyOf(plainValue, plainValue.length + 1)), "Trailing data");
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode(new byte[] {BinaryReferralListCodec.VERSION_BINARY, 0x7f, -1, -1, -1}),
+                "Record count far beyond the value");
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode(new byte[] {BinaryReferralListCodec.VERSION_BINARY, -1, -1, -1, -1}),
+                "Negative record count");
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(badZoneValue.toByteArray()),
+                "Unknown time zone");
+    }
+
+    private static List<ReferralRecord> referralsOf(String referrerId, String... customerIds) {
+        List<ReferralRecord> records = new ArrayList<>();
+        for (String customerId : customerIds) {
+            ReferralRecord record = new ReferralRecord();
+            record.setCustomerId(customerId);
+            record.setReferrerId(referrerId);
+            record.setDateReferred(ZonedDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+            records.add(record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,262 @@
+package com.kenzie.marketing.referral.service.caching;
+
+import com.kenzie.marketing.referral.service.dao.NonCachingReferralDao;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingReferralDaoTest {
+
+    private CacheClient cacheClient;
+    private NonCachingReferralDao nonCachingReferralDao;
+    private BinaryReferralListCodec codec;
+    private Cache<String, List<ReferralRecord>> nearCache;
+    private CachingReferralDao cachingReferralDao;
+    @Captor
+    private ArgumentCaptor<Collection<String>> loadCaptor;
+    @Captor
+    private ArgumentCaptor<Map<String, byte[]>> writeCaptor;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        cacheClient = mock(CacheClient.class);
+        nonCachingReferralDao = mock(NonCachingReferralDao.class);
+        codec = new BinaryReferralListCodec(1024);
+        nearCache = Caffeine.newBuilder().build();
+        cachingReferralDao = new CachingReferralDao(cacheClient, nonCachingReferralDao, codec, nearCache);
+    }
+
+    /** ------------------------------------------------------------------------
+     *  cacheClient.getBinaryValues / cacheClient.setBinaryValues
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void getBinaryValues_reads_every_key_with_one_mget() {
+        // GIVEN
+        JedisPool pool = mock(JedisPool.class);
+        Jedis jedis = mock(Jedis.class);
+        when(pool.getResource()).thenReturn(jedis);
+        byte[] cachedValue = {1, 2, 3};
+        when(jedis.mget(SafeEncoder.encode("hit"), SafeEncoder.encode("miss")))
+                .thenReturn(Arrays.asList(cachedValue, null));
+
+        // WHEN
+        Map<String, byte[]> values = new CacheClient(pool).getBinaryValues(Arrays.asList("hit", "miss"));
+
+        // THEN
+        assertEquals(Collections.singleton("hit"), values.keySet(), "Missing keys are left out");
+        assertArrayEquals(cachedValue, values.get("hit"));
+        verify(pool, times(1)).getResource();
+        verify(jedis).close();
+    }
+
+    @Test
+    void setBinaryValues_pipelines_every_value() {
+        // GIVEN
+        JedisPool pool = mock(JedisPool.class);
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(pool.getResource()).thenReturn(jedis);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        values.put("first", new byte[] {1});
+        values.put("second", new byte[] {2});
+
+        // WHEN
+        new CacheClient(pool).setBinaryValues(60, values);
+
+        // THEN
+        verify(pipeline).setex(SafeEncoder.encode("first"), 60, new byte[] {1});
+        verify(pipeline).setex(SafeEncoder.encode("second"), 60, new byte[] {2});
+        verify(pipeline, times(1)).sync();
+        verify(jedis, never()).setex(any(byte[].class), eq(60), any(byte[].class));
+        verify(jedis).close();
+    }
+
+    /** ------------------------------------------------------------------------
+     *  cachingReferralDao.findByReferrerId
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void findByReferrerId_concurrent_misses_share_one_load() throws Exception {
+        // GIVEN
+        when(cacheClient.getBinaryValue(anyString())).thenReturn(Optional.empty());
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(nonCachingReferralDao.findByReferrerId("root")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return referralsOf("root", "a", "b");
+        });
+
+        // WHEN
+        CompletableFuture<List<ReferralRecord>> firstRead = new CompletableFuture<>();
+        CompletableFuture<List<ReferralRecord>> secondRead = new CompletableFuture<>();
+        new Thread(() -> firstRead.complete(cachingReferralDao.findByReferrerId("root"))).start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS), "The first read starts loading");
+        Thread secondReader = new Thread(() -> secondRead.complete(cachingReferralDao.findByReferrerId("root")));
+        secondReader.start();
+        awaitWaiting(secondReader);
+        release.countDown();
+
+        // THEN
+        assertEquals(2, firstRead.get(5, TimeUnit.SECONDS).size(), "The referrals are loaded");
+        assertEquals(firstRead.get(), secondRead.get(5, TimeUnit.SECONDS), "The second read gets the same list");
+        verify(nonCachingReferralDao, times(1)).findByReferrerId("root");
+        verify(cacheClient, times(1)).setValue(eq("ReferralKey::root"), eq(60 * 60), any(byte[].class));
+    }
+
+    @Test
+    void findByReferrerId_near_cache_serves_repeated_reads() {
+        // GIVEN
+        when(cacheClient.getBinaryValue(anyString())).thenReturn(Optional.empty());
+        when(nonCachingReferralDao.findByReferrerId("root")).thenReturn(referralsOf("root", "a", "b"));
+        ReferralRecord newReferral = referralsOf("root", "c").get(0);
+
+        // WHEN
+        List<ReferralRecord> firstRead = cachingReferralDao.findByReferrerId("root");
+        List<ReferralRecord> secondRead = cachingReferralDao.findByReferrerId("root");
+        cachingReferralDao.addReferral(newReferral);
+        cachingReferralDao.findByReferrerId("root");
+
+        // THEN
+        assertEquals(2, firstRead.size(), "The referrals are loaded");
+        assertEquals(firstRead, secondRead, "The second read is served from the near cache");
+        verify(cacheClient, times(2)).getBinaryValue("ReferralKey::root");
+        verify(nonCachingReferralDao, times(2)).findByReferrerId("root");
+    }
+
+    /** ------------------------------------------------------------------------
+     *  cachingReferralDao.findByReferrerIds
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void findByReferrerIds_reads_near_cache_then_redis_then_dynamodb() {
+        // GIVEN
+        nearCache.put("near", referralsOf("near", "a"));
+        Map<String, byte[]> cachedValues = new HashMap<>();
+        cachedValues.put("ReferralKey::cached", codec.encode(referralsOf("cached", "b", "c")));
+        when(cacheClient.getBinaryValues(anyListOf(String.class))).thenReturn(cachedValues);
+        Map<String, List<ReferralRecord>> loadedReferrals = new HashMap<>();
+        loadedReferrals.put("missing", referralsOf("missing", "d"));
+        when(nonCachingReferralDao.findByReferrerIds(anyCollectionOf(String.class))).thenReturn(loadedReferrals);
+
+        // WHEN
+        Map<String, List<ReferralRecord>> referrals =
+                cachingReferralDao.findByReferrerIds(Arrays.asList("near", "cached", "missing", "cached"));
+
+        // THEN
+        assertEquals(1, referrals.get("near").size(), "The near cached referrals are returned");
+        assertEquals(2, referrals.get("cached").size(), "The redis cached referrals are returned");
+        assertEquals(1, referrals.get("missing").size(), "The missing referrals are loaded");
+        verify(cacheClient).getBinaryValues(Arrays.asList("ReferralKey::cached", "ReferralKey::missing"));
+        verify(nonCachingReferralDao).findByReferrerIds(loadCaptor.capture());
+        assertEquals(Collections.singleton("missing"), new HashSet<>(loadCaptor.getValue()), "Only misses are loaded");
+        verify(cacheClient).setBinaryValues(eq(60 * 60), writeCaptor.capture());
+        assertEquals(Collections.singleton("ReferralKey::missing"), writeCaptor.getValue().keySet(),
+                "Only the loaded referrals are written back");
+        assertEquals(referrals.get("cached"), nearCache.getIfPresent("cached"), "Redis hits are kept in memory");
+        assertEquals(referrals.get("missing"), nearCache.getIfPresent("missing"), "Loads are kept in memory");
+        verify(cacheClient, never()).getBinaryValue(anyString());
+    }
+
+    @Test
+    void findByReferrerIds_shares_a_load_already_in_flight() throws Exception {
+        // GIVEN
+        when(cacheClient.getBinaryValue(anyString())).thenReturn(Optional.empty());
+        when(cacheClient.getBinaryValues(anyListOf(String.class))).thenReturn(new HashMap<>());
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(nonCachingReferralDao.findByReferrerId("shared")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return referralsOf("shared", "a");
+        });
+        Map<String, List<ReferralRecord>> loadedReferrals = new HashMap<>();
+        loadedReferrals.put("other", referralsOf("other", "b"));
+        when(nonCachingReferralDao.findByReferrerIds(anyCollectionOf(String.class))).thenReturn(loadedReferrals);
+
+        // WHEN
+        new Thread(() -> cachingReferralDao.findByReferrerId("shared")).start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS), "The single read starts loading");
+        CompletableFuture<Map<String, List<ReferralRecord>>> batchRead = new CompletableFuture<>();
+        Thread batchReader = new Thread(() ->
+                batchRead.complete(cachingReferralDao.findByReferrerIds(Arrays.asList("shared", "other"))));
+        batchReader.start();
+        awaitWaiting(batchReader);
+        assertFalse(batchRead.isDone(), "The batch waits for the load in flight");
+        release.countDown();
+        Map<String, List<ReferralRecord>> referrals = batchRead.get(5, TimeUnit.SECONDS);
+
+        // THEN
+        assertEquals(1, referrals.get("shared").size(), "The shared load is returned");
+        assertEquals(1, referrals.get("other").size(), "The batch load is returned");
+        verify(nonCachingReferralDao).findByReferrerIds(loadCaptor.capture());
+        assertEquals(Collections.singleton("other"), new HashSet<>(loadCaptor.getValue()),
+                "A referrer that is already loading is not read again");
+        verify(nonCachingReferralDao, times(1)).findByReferrerId("shared");
+    }
+
+    // Waits until the thread parks, which it only does to wait on a load in flight
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState(), "The reader waits on the load in flight");
+    }
+
+    private static List<ReferralRecord> referralsOf(String referrerId, String... customerIds) {
+        List<ReferralRecord> records = new ArrayList<>();
+        for (String customerId : customerIds) {
+            ReferralRecord record = new ReferralRecord();
+            record.setCustomerId(customerId);
+            record.setReferrerId(referrerId);
+            record.setDateReferred(ZonedDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+            records.add(record);
+        }
+        return records;
+    }
+}
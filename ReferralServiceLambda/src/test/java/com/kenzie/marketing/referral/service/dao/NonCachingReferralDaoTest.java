@@ -0,0 +1,292 @@
+package com.kenzie.marketing.referral.service.dao;
+
+import com.kenzie.marketing.referral.service.exceptions.InvalidDataException;
+import com.kenzie.marketing.referral.service.model.ReferralRecord;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class NonCachingReferralDaoTest {
+
+    private Map<String, Map<String, AttributeValue>> table;
+    private DynamoDBMapper mapper;
+    private Runnable duringSave;
+    private NonCachingReferralDao referralDao;
+
+    @BeforeEach
+    void setup() {
+        table = new HashMap<>();
+        duringSave = () -> { };
+        mapper = mock(DynamoDBMapper.class);
+        AmazonDynamoDB dynamoDb = mock(AmazonDynamoDB.class);
+        when(dynamoDb.updateItem(any(UpdateItemRequest.class)))
+                .thenAnswer(invocation -> updateItem(invocation.getArgumentAt(0, UpdateItemRequest.class)));
+        when(mapper.load(eq(ReferralRecord.class), anyString()))
+                .thenAnswer(invocation -> toRecord(table.get(invocation.getArgumentAt(1, String.class))));
+        doAnswer(invocation -> {
+            duringSave.run();
+            ReferralRecord record = invocation.getArgumentAt(0, ReferralRecord.class);
+            if (table.containsKey(record.getCustomerId())) {
+                throw new ConditionalCheckFailedException("The customer exists");
+            }
+            putCustomer(record.getCustomerId(), record.getReferrerId());
+            return null;
+        }).when(mapper).save(any(ReferralRecord.class), any(DynamoDBSaveExpression.class));
+        referralDao = new NonCachingReferralDao(mapper, dynamoDb);
+    }
+
+    /** ------------------------------------------------------------------------
+     *  referralDao.addReferral
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void addReferral_counts_on_materialized_ancestors() {
+        // GIVEN
+        putCustomer("root", null).putAll(counts(1, 0, 0));
+        putCustomer("a", "root").putAll(counts(0, 0, 0));
+
+        // WHEN
+        referralDao.addReferral(referral("b", "a"));
+
+        // THEN
+        ReferralRecord a = referralDao.findByCustomerId("a");
+        ReferralRecord root = referralDao.findByCustomerId("root");
+        assertEquals(1, a.getNumFirstLevelReferrals(), "The referrer counts a first level referral");
+        assertEquals(1, root.getNumFirstLevelReferrals());
+        assertEquals(1, root.getNumSecondLevelReferrals(), "The referrer's referrer counts a second level referral");
+        assertEquals(0, root.getPendingReferrals(), "The referral is no longer pending");
+        assertEquals(1, root.getReferralVersion());
+    }
+
+    @Test
+    void addReferral_already_referred_clears_the_pending_mark() {
+        // GIVEN
+        putCustomer("root", null).putAll(counts(1, 0, 0));
+        putCustomer("a", "root");
+
+        // WHEN
+        assertThrows(InvalidDataException.class, () -> referralDao.addReferral(referral("a", "root")));
+
+        // THEN
+        ReferralRecord root = referralDao.findByCustomerId("root");
+        assertEquals(1, root.getNumFirstLevelReferrals(), "A rejected referral is not counted");
+        assertEquals(0, root.getPendingReferrals(), "A rejected referral is no longer pending");
+    }
+
+    /** ------------------------------------------------------------------------
+     *  referralDao.initializeReferralCounts
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void initializeReferralCounts_stores_counts_of_an_unmaterialized_customer() {
+        // GIVEN
+        putCustomer("root", null);
+        putCustomer("a", "root");
+        ReferralRecord root = referralDao.findByCustomerId("root");
+
+        // WHEN
+        root.setNumFirstLevelReferrals(1);
+        root.setNumSecondLevelReferrals(0);
+        root.setNumThirdLevelReferrals(0);
+        referralDao.initializeReferralCounts(root);
+
+        // THEN
+        assertEquals(1, referralDao.findByCustomerId("root").getNumFirstLevelReferrals());
+    }
+
+    @Test
+    void initializeReferralCounts_walk_finished_before_a_referral_is_not_stored() {
+        // GIVEN - the record is loaded and the tree walked, then a referral is added before the counts are stored
+        putCustomer("root", null);
+        ReferralRecord walkedRoot = walk(referralDao.findByCustomerId("root"), 0);
+        referralDao.addReferral(referral("a", "root"));
+
+        // WHEN
+        referralDao.initializeReferralCounts(walkedRoot);
+
+        // THEN
+        assertFalse(referralDao.findByCustomerId("root").hasReferralCounts(), "Counts missing a referral are dropped");
+        referralDao.initializeReferralCounts(walk(referralDao.findByCustomerId("root"), 1));
+        assertEquals(1, referralDao.findByCustomerId("root").getNumFirstLevelReferrals(),
+                "The next walk stores the counts");
+    }
+
+    @Test
+    void initializeReferralCounts_walk_during_a_referral_is_not_stored() {
+        // GIVEN - one walk loaded the record before the referral started, another while it is in flight, and both
+        // finish while the referral is being saved, seeing it or not
+        putCustomer("root", null);
+        ReferralRecord walkedBeforeRoot = referralDao.findByCustomerId("root");
+        ReferralRecord[] walkedDuringRoot = new ReferralRecord[1];
+        duringSave = () -> {
+            walkedDuringRoot[0] = walk(referralDao.findByCustomerId("root"), 1);
+            referralDao.initializeReferralCounts(walk(walkedBeforeRoot, 0));
+            referralDao.initializeReferralCounts(walkedDuringRoot[0]);
+        };
+
+        // WHEN
+        referralDao.addReferral(referral("a", "root"));
+
+        // THEN
+        assertEquals(1, walkedDuringRoot[0].getPendingReferrals(), "The walk saw the referral in flight");
+        assertFalse(referralDao.findByCustomerId("root").hasReferralCounts(),
+                "Counts walked while a referral was in flight are dropped");
+
+        duringSave = () -> { };
+        referralDao.initializeReferralCounts(walk(referralDao.findByCustomerId("root"), 1));
+        referralDao.addReferral(referral("b", "root"));
+        assertEquals(2, referralDao.findByCustomerId("root").getNumFirstLevelReferrals(),
+                "Every referral is counted exactly once");
+    }
+
+    @Test
+    void initializeReferralCounts_existing_counts_are_kept() {
+        // GIVEN
+        putCustomer("root", null).putAll(counts(2, 1, 0));
+        ReferralRecord root = walk(referralDao.findByCustomerId("root"), 5);
+
+        // WHEN
+        referralDao.initializeReferralCounts(root);
+
+        // THEN
+        assertEquals(2, referralDao.findByCustomerId("root").getNumFirstLevelReferrals());
+    }
+
+    private Map<String, AttributeValue> putCustomer(String customerId, String referrerId) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("CustomerId", new AttributeValue(customerId));
+        if (referrerId != null) {
+            item.put("ReferrerId", new AttributeValue(referrerId));
+        }
+        table.put(customerId, item);
+        return item;
+    }
+
+    private static Map<String, AttributeValue> counts(int first, int second, int third) {
+        Map<String, AttributeValue> counts = new HashMap<>();
+        counts.put("NumFirstLevelReferrals", new AttributeValue().withN(String.valueOf(first)));
+        counts.put("NumSecondLevelReferrals", new AttributeValue().withN(String.valueOf(second)));
+        counts.put("NumThirdLevelReferrals", new AttributeValue().withN(String.valueOf(third)));
+        return counts;
+    }
+
+    private static ReferralRecord referral(String customerId, String referrerId) {
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(customerId);
+        record.setReferrerId(referrerId);
+        return record;
+    }
+
+    private static ReferralRecord walk(ReferralRecord record, int firstLevelReferrals) {
+        record.setNumFirstLevelReferrals(firstLevelReferrals);
+        record.setNumSecondLevelReferrals(0);
+        record.setNumThirdLevelReferrals(0);
+        return record;
+    }
+
+    private static ReferralRecord toRecord(Map<String, AttributeValue> item) {
+        if (item == null) {
+            return null;
+        }
+        ReferralRecord record = new ReferralRecord();
+        record.setCustomerId(item.get("CustomerId").getS());
+        record.setReferrerId(item.containsKey("ReferrerId") ? item.get("ReferrerId").getS() : null);
+        record.setNumFirstLevelReferrals(number(item, "NumFirstLevelReferrals"));
+        record.setNumSecondLevelReferrals(number(item, "NumSecondLevelReferrals"));
+        record.setNumThirdLevelReferrals(number(item, "NumThirdLevelReferrals"));
+        record.setPendingReferrals(number(item, "PendingReferrals"));
+        record.setReferralVersion(number(item, "ReferralVersion"));
+        return record;
+    }
+
+    private static Integer number(Map<String, AttributeValue> item, String name) {
+        return item.containsKey(name) ? Integer.valueOf(item.get(name).getN()) : null;
+    }
+
+    /**
+     * Applies the condition and ADD or SET update expressions the DAO issues to the in memory table, the way
+     * DynamoDB would apply them atomically to a single item.
+     */
+    private UpdateItemResult updateItem(UpdateItemRequest request) {
+        String customerId = request.getKey().get("CustomerId").getS();
+        Map<String, AttributeValue> item = table.getOrDefault(customerId, new HashMap<>());
+        if (request.getConditionExpression() != null) {
+            for (String clause : request.getConditionExpression().split(" AND ")) {
+                String condition = clause.startsWith("(") ? clause.substring(1, clause.length() - 1) : clause;
+                if (!matches(item, condition, request)) {
+                    throw new ConditionalCheckFailedException("The conditional request failed: " + clause);
+                }
+            }
+        }
+
+        Map<String, AttributeValue> updated = new HashMap<>(item);
+        String updateExpression = request.getUpdateExpression();
+        boolean add = updateExpression.startsWith("ADD ");
+        for (String action : updateExpression.substring(4).split(", ")) {
+            String[] operands = action.split(add ? " " : " = ");
+            String name = request.getExpressionAttributeNames().get(operands[0]);
+            AttributeValue value = request.getExpressionAttributeValues().get(operands[1]);
+            if (add) {
+                BigDecimal current = updated.containsKey(name)
+                        ? new BigDecimal(updated.get(name).getN()) : BigDecimal.ZERO;
+                value = new AttributeValue().withN(current.add(new BigDecimal(value.getN())).toString());
+            }
+            updated.put(name, value);
+        }
+        updated.put("CustomerId", new AttributeValue(customerId));
+        table.put(customerId, updated);
+
+        return new UpdateItemResult()
+                .withAttributes(ReturnValue.ALL_NEW.toString().equals(request.getReturnValues())
+                        ? new HashMap<>(updated) : null);
+    }
+
+    private static boolean matches(Map<String, AttributeValue> item, String condition, UpdateItemRequest request) {
+        for (String alternative : condition.split(" OR ")) {
+            if (alternative.startsWith("attribute_exists(")) {
+                if (item.containsKey(name(alternative, request))) {
+                    return true;
+                }
+            } else if (alternative.startsWith("attribute_not_exists(")) {
+                if (!item.containsKey(name(alternative, request))) {
+                    return true;
+                }
+            } else {
+                String[] operands = alternative.split(" = ");
+                AttributeValue actual = item.get(request.getExpressionAttributeNames().get(operands[0]));
+                AttributeValue expected = request.getExpressionAttributeValues().get(operands[1]);
+                if (actual != null && new BigDecimal(actual.getN()).compareTo(new BigDecimal(expected.getN())) == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String name(String function, UpdateItemRequest request) {
+        String operand = function.substring(function.indexOf('(') + 1, function.indexOf(')'));
+        return operand.startsWith("#") ? request.getExpressionAttributeNames().get(operand) : operand;
+    }
+}
@@ -7,16 +7,105 @@ import com.amazonaws.services.apigateway.model.GetRestApisResult;
 import com.amazonaws.services.apigateway.model.RestApi;
 
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class EndpointUtility {
-    private String apiEndpoint;
+    // Looked up once per process, the API id only changes when the stack is redeployed
+    private static volatile String resolvedApiEndpoint;
 
+    // Shared by every utility in the process, so creating clients never leaks threads or connections
+    private static final ExecutorService EXECUTOR = createExecutor();
+    private static final HttpClient HTTP_CLIENT = createHttpClient();
+
+    private final String apiEndpointOverride;
+    private final Supplier<String> apiEndpointLookup;
+    private final Duration requestTimeout;
+
+    /**
+     * Uses the endpoint in the REFERRAL_SERVICE_ENDPOINT environment variable or the referral.service.endpoint
+     * system property, and otherwise looks up the API Gateway endpoint of the service stack.
+     */
     public EndpointUtility() {
-        this.apiEndpoint = getApiEndpint();
+        this(null);
+    }
+
+    /**
+     * @param apiEndpoint the base URL of the referral service, or null to find it the same way as the no argument
+     *                    constructor
+     */
+    public EndpointUtility(String apiEndpoint) {
+        if (isBlank(apiEndpoint)) {
+            apiEndpoint = System.getenv("REFERRAL_SERVICE_ENDPOINT");
+        }
+        if (isBlank(apiEndpoint)) {
+            apiEndpoint = System.getProperty("referral.service.endpoint");
+        }
+        this.apiEndpointOverride = isBlank(apiEndpoint) ? null : withTrailingSlash(apiEndpoint.trim());
+        this.apiEndpointLookup = EndpointUtility::getApiEndpint;
+        this.requestTimeout = getDuration("REFERRAL_CLIENT_REQUEST_TIMEOUT_MS", 30000);
+    }
+
+    // Necessary for testing, do not delete
+    EndpointUtility(Supplier<String> apiEndpointLookup, Duration requestTimeout) {
+        this.apiEndpointOverride = null;
+        this.apiEndpointLookup = apiEndpointLookup;
+        this.requestTimeout = requestTimeout;
+    }
+
+    // Necessary for testing, do not delete
+    static void clearResolvedApiEndpoint() {
+        synchronized (EndpointUtility.class) {
+            resolvedApiEndpoint = null;
+        }
+    }
+
+    /**
+     * The HttpClient shared by every request in the process negotiates HTTP/2 where the endpoint supports it, so
+     * concurrent requests are multiplexed over one connection, and keeps connections alive between requests so only
+     * the first one pays for the TLS handshake.  REFERRAL_CLIENT_CONNECT_TIMEOUT_MS (default 2000) bounds opening a
+     * connection.
+     */
+    private static HttpClient createHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(getDuration("REFERRAL_CLIENT_CONNECT_TIMEOUT_MS", 2000))
+                .executor(EXECUTOR)
+                .build();
+    }
+
+    /**
+     * The client's own work, and the handling of async responses, runs on REFERRAL_CLIENT_THREADS (default 4)
+     * daemon threads.  They live as long as the process and never keep it from exiting.
+     */
+    private static ExecutorService createExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(getInt("REFERRAL_CLIENT_THREADS", 4), runnable -> {
+            Thread thread = new Thread(runnable, "referral-client-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the executor async responses are handled on, which keeps work off the client's I/O thread.
+     */
+    Executor getExecutor() {
+        return EXECUTOR;
     }
 
     public static String getStackName() {
@@ -36,6 +125,32 @@ public class EndpointUtility {
         return deploymentName;
     }
 
+    /**
+     * Returns the base URL of the referral service, looking it up only when it isn't configured or cached.
+     * @return the base URL, ending in a slash
+     */
+    public String getApiEndpoint() {
+        if (apiEndpointOverride != null) {
+            return apiEndpointOverride;
+        }
+        String apiEndpoint = resolvedApiEndpoint;
+        if (apiEndpoint == null) {
+            synchronized (EndpointUtility.class) {
+                apiEndpoint = resolvedApiEndpoint;
+                if (apiEndpoint == null) {
+                    apiEndpoint = apiEndpointLookup.get();
+                    resolvedApiEndpoint = apiEndpoint;
+                }
+            }
+        }
+        return apiEndpoint;
+    }
+
+    /**
+     * Looks up the API Gateway endpoint of the service stack.  This is a control plane call, use getApiEndpoint to
+     * get the cached endpoint instead.
+     * @return the base URL, ending in a slash
+     */
     public static String getApiEndpint() {
         String region = System.getenv("AWS_REGION");
         if (region == null) {
@@ -64,52 +179,177 @@ public class EndpointUtility {
     }
 
     public String postEndpoint(String endpoint, String data) {
-        String api = getApiEndpint();
-        String url = api + endpoint;
+        return send(endpoint, false, HttpRequest.newBuilder()
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(data)));
+    }
+
+    public String getEndpoint(String endpoint) {
+        return send(endpoint, true, HttpRequest.newBuilder()
+                .header("Accept", "application/json")
+                .GET());
+    }
+
+    public CompletableFuture<String> postEndpointAsync(String endpoint, String data) {
+        return sendAsync(endpoint, false, HttpRequest.newBuilder()
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(data)));
+    }
 
-        HttpClient client = HttpClient.newHttpClient();
-        URI uri = URI.create(url);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(uri)
+    public CompletableFuture<String> getEndpointAsync(String endpoint) {
+        return sendAsync(endpoint, true, HttpRequest.newBuilder()
                 .header("Accept", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(data))
+                .GET());
+    }
+
+    private CompletableFuture<String> sendAsync(String endpoint, boolean idempotent,
+                                                HttpRequest.Builder requestBuilder) {
+        String api = getApiEndpoint();
+        return sendToAsync(api + endpoint, requestBuilder)
+                .handle((body, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(body);
+                    }
+                    Throwable cause = unwrap(error);
+                    if (cause instanceof Exception && refreshApiEndpoint(api, idempotent, (Exception) cause)) {
+                        return sendToAsync(getApiEndpoint() + endpoint, requestBuilder);
+                    }
+                    return CompletableFuture.<String>failedFuture(cause);
+                })
+                .thenCompose(Function.identity())
+                .handle((body, error) -> {
+                    if (error == null) {
+                        return body;
+                    }
+                    Throwable cause = unwrap(error);
+                    if (cause instanceof Exception) {
+                        throw requestFailed(endpoint, (Exception) cause);
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    private CompletableFuture<String> sendToAsync(String url, HttpRequest.Builder requestBuilder) {
+        HttpRequest request = requestBuilder
+                .uri(URI.create(url))
+                .timeout(requestTimeout)
                 .build();
-        try {
-            HttpResponse<String> httpResponse = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(httpResponse -> checkStatus(request, httpResponse));
+    }
 
-            int statusCode = httpResponse.statusCode();
-            if (statusCode == 200) {
-                return httpResponse.body();
-            } else {
-                throw new ApiGatewayException("GET request failed: " + statusCode + " status code received");
+    private String send(String endpoint, boolean idempotent, HttpRequest.Builder requestBuilder) {
+        String api = getApiEndpoint();
+        try {
+            return sendTo(api + endpoint, requestBuilder);
+        } catch (IOException | ApiGatewayException e) {
+            if (!refreshApiEndpoint(api, idempotent, e)) {
+                throw requestFailed(endpoint, e);
             }
-        } catch (IOException | InterruptedException e) {
-            return e.getMessage();
+        }
+        try {
+            return sendTo(getApiEndpoint() + endpoint, requestBuilder);
+        } catch (IOException e) {
+            throw requestFailed(endpoint, e);
         }
     }
 
-    public String getEndpoint(String endpoint) {
-        String api = getApiEndpint();
-        String url = api + endpoint;
+    /**
+     * Forgets a looked up endpoint that failed the way it does once the stack is redeployed under a new API id,
+     * either with a connection failure or with a 403 or 404 from API Gateway, which the service itself only
+     * returns for an unknown route.  A timeout means the endpoint was reached, so a new lookup wouldn't help.
+     * @return whether the request can be sent again to the endpoint looked up next
+     */
+    private boolean refreshApiEndpoint(String api, boolean idempotent, Exception e) {
+        if (apiEndpointOverride != null || !isStaleApiEndpoint(e)) {
+            return false;
+        }
+        clearResolvedApiEndpoint(api);
+        return canRetry(idempotent, e);
+    }
 
-        HttpClient client = HttpClient.newHttpClient();
-        URI uri = URI.create(url);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(uri)
-                .header("Accept", "application/json")
-                .GET()
+    private static boolean isStaleApiEndpoint(Exception e) {
+        if (e instanceof ApiGatewayException) {
+            int statusCode = ((ApiGatewayException) e).getStatusCode();
+            return statusCode == 403 || statusCode == 404;
+        }
+        return e instanceof IOException && !(e instanceof HttpTimeoutException);
+    }
+
+    /**
+     * A GET can always be sent again.  Anything else is only retried when the connection was never made, because a
+     * failure after the request was sent may come after the server already processed it, and retrying would apply
+     * it twice.
+     */
+    private static boolean canRetry(boolean idempotent, Exception e) {
+        return idempotent || e instanceof ConnectException || e instanceof UnknownHostException;
+    }
+
+    private String sendTo(String url, HttpRequest.Builder requestBuilder) throws IOException {
+        HttpRequest request = requestBuilder
+                .uri(URI.create(url))
+                .timeout(requestTimeout)
                 .build();
         try {
-            HttpResponse<String> httpResponse = client.send(request, HttpResponse.BodyHandlers.ofString());
+            return checkStatus(request, HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiGatewayException(request.method() + " request interrupted", e);
+        }
+    }
 
-            int statusCode = httpResponse.statusCode();
-            if (statusCode == 200) {
-                return httpResponse.body();
-            } else {
-                throw new ApiGatewayException("GET request failed: " + statusCode + " status code received");
+    private static String checkStatus(HttpRequest request, HttpResponse<String> httpResponse) {
+        int statusCode = httpResponse.statusCode();
+        if (statusCode == 200) {
+            return httpResponse.body();
+        } else {
+            ApiGatewayException exception = new ApiGatewayException(request.method() + " request failed: "
+                    + statusCode + " status code received");
+            exception.setStatusCode(statusCode);
+            throw exception;
+        }
+    }
+
+    private static ApiGatewayException requestFailed(String endpoint, Exception e) {
+        if (e instanceof ApiGatewayException) {
+            return (ApiGatewayException) e;
+        }
+        return new ApiGatewayException("Request to " + endpoint + " failed: " + e, e);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static void clearResolvedApiEndpoint(String failedApiEndpoint) {
+        synchronized (EndpointUtility.class) {
+            if (failedApiEndpoint.equals(resolvedApiEndpoint)) {
+                resolvedApiEndpoint = null;
             }
-        } catch (IOException | InterruptedException e) {
-            return e.getMessage();
         }
     }
+
+    private static Duration getDuration(String name, int defaultMillis) {
+        return Duration.ofMillis(getInt(name, defaultMillis));
+    }
+
+    private static int getInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static String withTrailingSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
 }
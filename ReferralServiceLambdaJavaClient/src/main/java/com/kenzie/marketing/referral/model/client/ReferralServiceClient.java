@@ -3,6 +3,7 @@ package com.kenzie.marketing.referral.model.client;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kenzie.marketing.referral.model.BatchReferralRequest;
 import com.kenzie.marketing.referral.model.CustomerReferrals;
 import com.kenzie.marketing.referral.model.LeaderboardEntry;
 import com.kenzie.marketing.referral.model.Referral;
@@ -10,6 +11,8 @@ import com.kenzie.marketing.referral.model.ReferralRequest;
 import com.kenzie.marketing.referral.model.ReferralResponse;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class ReferralServiceClient {
 
@@ -17,64 +20,134 @@ public class ReferralServiceClient {
     private static final String GET_REFERRAL_SUMMARY_ENDPOINT = "referral/{customerId}";
     private static final String GET_DIRECT_REFERRALS_ENDPOINT = "referral/list/{customerId}";
     private static final String GET_LEADERBOARD_ENDPOINT = "referral/leaderboard";
+    private static final String GET_DIRECT_REFERRALS_BATCH_ENDPOINT = "referral/list";
+    private static final String GET_REFERRAL_SUMMARY_BATCH_ENDPOINT = "referral/summary";
 
     private ObjectMapper mapper;
+    private EndpointUtility endpointUtility;
 
     public ReferralServiceClient() {
+        this(null);
+    }
+
+    /**
+     * @param apiEndpoint the base URL of the referral service, or null to use the configured or deployed endpoint
+     */
+    public ReferralServiceClient(String apiEndpoint) {
         this.mapper = new ObjectMapper();
+        this.endpointUtility = new EndpointUtility(apiEndpoint);
     }
 
     public ReferralResponse addReferral(ReferralRequest referralRequest) {
-        EndpointUtility endpointUtility = new EndpointUtility();
-        String request;
-        try {
-            request = mapper.writeValueAsString(referralRequest);
-        } catch(JsonProcessingException e) {
-            throw new ApiGatewayException("Unable to serialize request: " + e);
-        }
-        String response = endpointUtility.postEndpoint(ADD_REFERRAL_ENDPOINT, request);
-        ReferralResponse referralResponse;
-        try {
-            referralResponse = mapper.readValue(response, ReferralResponse.class);
-        } catch (Exception e) {
-            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
-        }
-        return referralResponse;
+        String response = endpointUtility.postEndpoint(ADD_REFERRAL_ENDPOINT, toJson(referralRequest));
+        return readValue(response, new TypeReference<>(){});
     }
 
     public CustomerReferrals getReferralSummary(String customerId) {
-        EndpointUtility endpointUtility = new EndpointUtility();
         String response = endpointUtility.getEndpoint(GET_REFERRAL_SUMMARY_ENDPOINT.replace("{customerId}", customerId));
-        CustomerReferrals referrals;
-        try {
-            referrals = mapper.readValue(response, CustomerReferrals.class);
-        } catch (Exception e) {
-            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
-        }
-        return referrals;
+        return readValue(response, new TypeReference<>(){});
     }
 
     public List<Referral> getDirectReferrals(String customerId) {
-        EndpointUtility endpointUtility = new EndpointUtility();
         String response = endpointUtility.getEndpoint(GET_DIRECT_REFERRALS_ENDPOINT.replace("{customerId}", customerId));
-        List<Referral> referrals;
+        return readValue(response, new TypeReference<>(){});
+    }
+
+    /**
+     * Looks up the direct referrals of up to 100 customers with one request.
+     * @return the direct referrals of every customer, keyed by customerId
+     */
+    public Map<String, List<Referral>> getDirectReferrals(List<String> customerIds) {
+        String request = toJson(new BatchReferralRequest(customerIds));
+        String response = endpointUtility.postEndpoint(GET_DIRECT_REFERRALS_BATCH_ENDPOINT, request);
+        return readValue(response, new TypeReference<>(){});
+    }
+
+    /**
+     * Looks up the referral summaries of up to 100 customers with one request.
+     * @return the referral summary of every customer, keyed by customerId
+     */
+    public Map<String, CustomerReferrals> getReferralSummaries(List<String> customerIds) {
+        String request = toJson(new BatchReferralRequest(customerIds));
+        String response = endpointUtility.postEndpoint(GET_REFERRAL_SUMMARY_BATCH_ENDPOINT, request);
+        return readValue(response, new TypeReference<>(){});
+    }
+
+    public List<LeaderboardEntry> getLeaderboard() {
+        return getLeaderboard(GET_LEADERBOARD_ENDPOINT);
+    }
+
+    public List<LeaderboardEntry> getLeaderboard(int size) {
+        return getLeaderboard(GET_LEADERBOARD_ENDPOINT + "?size=" + size);
+    }
+
+    private List<LeaderboardEntry> getLeaderboard(String endpoint) {
+        String response = endpointUtility.getEndpoint(endpoint);
+        return readValue(response, new TypeReference<>(){});
+    }
+
+    // The async variants don't block the calling thread.  Responses are deserialized on the client's executor, so
+    // the I/O thread is free to serve other requests.
+
+    public CompletableFuture<ReferralResponse> addReferralAsync(ReferralRequest referralRequest) {
+        return endpointUtility.postEndpointAsync(ADD_REFERRAL_ENDPOINT, toJson(referralRequest))
+                .thenApplyAsync(response -> readValue(response, new TypeReference<ReferralResponse>(){}),
+                        endpointUtility.getExecutor());
+    }
+
+    public CompletableFuture<CustomerReferrals> getReferralSummaryAsync(String customerId) {
+        return endpointUtility.getEndpointAsync(GET_REFERRAL_SUMMARY_ENDPOINT.replace("{customerId}", customerId))
+                .thenApplyAsync(response -> readValue(response, new TypeReference<CustomerReferrals>(){}),
+                        endpointUtility.getExecutor());
+    }
+
+    public CompletableFuture<List<Referral>> getDirectReferralsAsync(String customerId) {
+        return endpointUtility.getEndpointAsync(GET_DIRECT_REFERRALS_ENDPOINT.replace("{customerId}", customerId))
+                .thenApplyAsync(response -> readValue(response, new TypeReference<List<Referral>>(){}),
+                        endpointUtility.getExecutor());
+    }
+
+    public CompletableFuture<Map<String, List<Referral>>> getDirectReferralsAsync(List<String> customerIds) {
+        String request = toJson(new BatchReferralRequest(customerIds));
+        return endpointUtility.postEndpointAsync(GET_DIRECT_REFERRALS_BATCH_ENDPOINT, request)
+                .thenApplyAsync(response -> readValue(response, new TypeReference<Map<String, List<Referral>>>(){}),
+                        endpointUtility.getExecutor());
+    }
+
+    public CompletableFuture<Map<String, CustomerReferrals>> getReferralSummariesAsync(List<String> customerIds) {
+        String request = toJson(new BatchReferralRequest(customerIds));
+        return endpointUtility.postEndpointAsync(GET_REFERRAL_SUMMARY_BATCH_ENDPOINT, request)
+                .thenApplyAsync(response -> readValue(response, new TypeReference<Map<String, CustomerReferrals>>(){}),
+                        endpointUtility.getExecutor());
+    }
+
+    public CompletableFuture<List<LeaderboardEntry>> getLeaderboardAsync() {
+        return getLeaderboardAsync(GET_LEADERBOARD_ENDPOINT);
+    }
+
+    public CompletableFuture<List<LeaderboardEntry>> getLeaderboardAsync(int size) {
+        return getLeaderboardAsync(GET_LEADERBOARD_ENDPOINT + "?size=" + size);
+    }
+
+    private CompletableFuture<List<LeaderboardEntry>> getLeaderboardAsync(String endpoint) {
+        return endpointUtility.getEndpointAsync(endpoint)
+                .thenApplyAsync(response -> readValue(response, new TypeReference<List<LeaderboardEntry>>(){}),
+                        endpointUtility.getExecutor());
+    }
+
+    private String toJson(Object request) {
         try {
-            referrals = mapper.readValue(response, new TypeReference<>(){});
-        } catch (Exception e) {
-            throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
+            return mapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new ApiGatewayException("Unable to serialize request: " + e);
         }
-        return referrals;
     }
 
-    public List<LeaderboardEntry> getLeaderboard() {
-        EndpointUtility endpointUtility = new EndpointUtility();
-        String response = endpointUtility.getEndpoint(GET_LEADERBOARD_ENDPOINT);
-        List<LeaderboardEntry> leaderboard;
+    private <T> T readValue(String response, TypeReference<T> type) {
         try {
-            leaderboard = mapper.readValue(response, new TypeReference<>(){});
+            return mapper.readValue(response, type);
         } catch (Exception e) {
             throw new ApiGatewayException("Unable to map deserialize JSON: " + e);
         }
-        return leaderboard;
     }
 }
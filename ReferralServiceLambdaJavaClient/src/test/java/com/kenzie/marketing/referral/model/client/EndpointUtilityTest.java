@@ -0,0 +1,293 @@
+package com.kenzie.marketing.referral.model.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EndpointUtilityTest {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration SHORT_REQUEST_TIMEOUT = Duration.ofMillis(200);
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private Map<String, AtomicInteger> requestCounts;
+    private AtomicInteger lookups;
+
+    @BeforeEach
+    void setup() throws IOException {
+        EndpointUtility.clearResolvedApiEndpoint();
+        requestCounts = new ConcurrentHashMap<>();
+        lookups = new AtomicInteger();
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/live/", exchange -> respond(exchange, "live", 200, "{\"ok\":true}"));
+        server.createContext("/stale/", exchange -> respond(exchange, "stale", 404, "{\"message\":\"Not Found\"}"));
+        server.createContext("/forbidden/", exchange -> respond(exchange, "forbidden", 403,
+                "{\"message\":\"Missing Authentication Token\"}"));
+        server.createContext("/broken/", exchange -> respond(exchange, "broken", 500, "{}"));
+        server.createContext("/slow/", exchange -> {
+            try {
+                Thread.sleep(SHORT_REQUEST_TIMEOUT.toMillis() * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, "slow", 200, "{}");
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void teardown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        EndpointUtility.clearResolvedApiEndpoint();
+    }
+
+    /** ------------------------------------------------------------------------
+     *  endpointUtility.getEndpoint
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void getEndpoint_reuses_the_looked_up_endpoint() {
+        // GIVEN
+        Supplier<String> lookup = lookupOf("/live/");
+
+        // WHEN
+        String firstBody = new EndpointUtility(lookup, REQUEST_TIMEOUT).getEndpoint("referrals/a");
+        String secondBody = new EndpointUtility(lookup, REQUEST_TIMEOUT).getEndpoint("referrals/b");
+
+        // THEN
+        assertEquals("{\"ok\":true}", firstBody);
+        assertEquals("{\"ok\":true}", secondBody);
+        assertEquals(1, lookups.get(), "The endpoint is looked up once for every utility in the process");
+        assertEquals(2, requestCount("live"));
+    }
+
+    @Test
+    void getEndpoint_looks_up_the_endpoint_again_after_a_404() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/stale/", "/live/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        String body = endpointUtility.getEndpoint("referrals/a");
+        endpointUtility.getEndpoint("referrals/b");
+
+        // THEN
+        assertEquals("{\"ok\":true}", body, "The GET is retried against the new endpoint");
+        assertEquals(1, requestCount("stale"));
+        assertEquals(2, requestCount("live"));
+        assertEquals(2, lookups.get(), "The new endpoint is cached again");
+    }
+
+    @Test
+    void getEndpoint_looks_up_the_endpoint_again_after_a_403() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/forbidden/", "/live/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        String body = endpointUtility.getEndpoint("referrals/a");
+
+        // THEN
+        assertEquals("{\"ok\":true}", body, "The GET is retried against the new endpoint");
+        assertEquals(1, requestCount("forbidden"));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void getEndpoint_error_status_throws_apiGatewayException() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/broken/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        ApiGatewayException exception = assertThrows(ApiGatewayException.class,
+                () -> endpointUtility.getEndpoint("referrals/a"));
+
+        // THEN
+        assertEquals(500, exception.getStatusCode());
+        assertEquals(1, requestCount("broken"), "A server error is not retried");
+        assertEquals(1, lookups.get(), "A server error keeps the endpoint");
+    }
+
+    @Test
+    void getEndpoint_timeout_throws_apiGatewayException() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/slow/"), SHORT_REQUEST_TIMEOUT);
+
+        // WHEN
+        ApiGatewayException exception = assertThrows(ApiGatewayException.class,
+                () -> endpointUtility.getEndpoint("referrals/a"));
+
+        // THEN
+        assertTrue(exception.getCause() instanceof HttpTimeoutException, "The timeout is the cause");
+        assertEquals(1, lookups.get(), "A timeout keeps the endpoint");
+    }
+
+    @Test
+    void getEndpoint_configured_endpoint_is_never_looked_up() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(baseUrl + "/stale/");
+
+        // WHEN
+        ApiGatewayException exception = assertThrows(ApiGatewayException.class,
+                () -> endpointUtility.getEndpoint("referrals/a"));
+
+        // THEN
+        assertEquals(404, exception.getStatusCode());
+        assertEquals(1, requestCount("stale"), "A configured endpoint is not retried");
+    }
+
+    /** ------------------------------------------------------------------------
+     *  endpointUtility.postEndpoint
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void postEndpoint_is_not_retried_after_the_request_was_sent() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/stale/", "/live/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        ApiGatewayException exception = assertThrows(ApiGatewayException.class,
+                () -> endpointUtility.postEndpoint("referrals", "{}"));
+        String body = endpointUtility.postEndpoint("referrals", "{}");
+
+        // THEN
+        assertEquals(404, exception.getStatusCode());
+        assertEquals(1, requestCount("stale"));
+        assertEquals("{\"ok\":true}", body, "The next request goes to the new endpoint");
+        assertEquals(1, requestCount("live"), "The failed POST was not sent again");
+    }
+
+    @Test
+    void postEndpoint_is_retried_when_the_connection_was_never_made() throws IOException {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf(closedPortUrl(), baseUrl + "/live/"),
+                REQUEST_TIMEOUT);
+
+        // WHEN
+        String body = endpointUtility.postEndpoint("referrals", "{}");
+
+        // THEN
+        assertEquals("{\"ok\":true}", body);
+        assertEquals(1, requestCount("live"));
+        assertEquals(2, lookups.get());
+    }
+
+    /** ------------------------------------------------------------------------
+     *  endpointUtility.getEndpointAsync / endpointUtility.postEndpointAsync
+     *  ------------------------------------------------------------------------ **/
+
+    @Test
+    void getEndpointAsync_looks_up_the_endpoint_again_after_a_404() throws Exception {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/stale/", "/live/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        String body = endpointUtility.getEndpointAsync("referrals/a").get(30, TimeUnit.SECONDS);
+
+        // THEN
+        assertEquals("{\"ok\":true}", body);
+        assertEquals(1, requestCount("stale"));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void getEndpointAsync_propagates_failures() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/broken/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> endpointUtility.getEndpointAsync("referrals/a").get(30, TimeUnit.SECONDS));
+
+        // THEN
+        assertTrue(exception.getCause() instanceof ApiGatewayException, "The failure is an ApiGatewayException");
+        assertEquals(500, ((ApiGatewayException) exception.getCause()).getStatusCode());
+    }
+
+    @Test
+    void getEndpointAsync_timeout_fails_with_apiGatewayException() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/slow/"), SHORT_REQUEST_TIMEOUT);
+
+        // WHEN
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> endpointUtility.getEndpointAsync("referrals/a").get(30, TimeUnit.SECONDS));
+
+        // THEN
+        assertTrue(exception.getCause() instanceof ApiGatewayException, "The failure is an ApiGatewayException");
+        assertTrue(exception.getCause().getCause() instanceof HttpTimeoutException, "The timeout is the cause");
+    }
+
+    @Test
+    void postEndpointAsync_is_not_retried_after_the_request_was_sent() {
+        // GIVEN
+        EndpointUtility endpointUtility = new EndpointUtility(lookupOf("/stale/", "/live/"), REQUEST_TIMEOUT);
+
+        // WHEN
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> endpointUtility.postEndpointAsync("referrals", "{}").get(30, TimeUnit.SECONDS));
+
+        // THEN
+        assertEquals(404, ((ApiGatewayException) exception.getCause()).getStatusCode());
+        assertEquals(1, requestCount("stale"));
+        assertEquals(0, requestCount("live"), "The failed POST was not sent again");
+        assertEquals(1, lookups.get());
+    }
+
+    /**
+     * Returns a lookup that answers with each endpoint in turn and then keeps answering with the last one.  Paths
+     * are on the test server.
+     */
+    private Supplier<String> lookupOf(String... endpoints) {
+        return () -> {
+            String endpoint = endpoints[Math.min(lookups.getAndIncrement(), endpoints.length - 1)];
+            return endpoint.startsWith("/") ? baseUrl + endpoint : endpoint;
+        };
+    }
+
+    private int requestCount(String context) {
+        return requestCounts.getOrDefault(context, new AtomicInteger()).get();
+    }
+
+    private void respond(HttpExchange exchange, String context, int statusCode, String body) throws IOException {
+        requestCounts.computeIfAbsent(context, key -> new AtomicInteger()).incrementAndGet();
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+
+    private static String closedPortUrl() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return "http://localhost:" + socket.getLocalPort() + "/";
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.kenzie.marketing.referral.model;
+
+import java.util.List;
+
+public class BatchReferralRequest {
+    private List<String> customerIds;
+
+    public BatchReferralRequest(List<String> customerIds) {
+        this.customerIds = customerIds;
+    }
+
+    public BatchReferralRequest() {
+    }
+
+    public List<String> getCustomerIds() {
+        return customerIds;
+    }
+
+    public void setCustomerIds(List<String> customerIds) {
+        this.customerIds = customerIds;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchReferralRequest{" +
+                "customerIds=" + customerIds +
+                '}';
+    }
+}